@@ -0,0 +1,221 @@
+package info.kgeorgiy.ja.ulin.benchmark;
+
+import info.kgeorgiy.ja.ulin.crawler.CrawlNode;
+import info.kgeorgiy.ja.ulin.crawler.DistributedCrawler;
+import info.kgeorgiy.ja.ulin.crawler.WebCrawler;
+import info.kgeorgiy.ja.ulin.crawler.WebCrawlerNode;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Smoke check of {@code DistributedCrawler} with several {@code WebCrawlerNode}s in one JVM.
+ * <p>
+ * Nodes are exported and bound to a registry created on the given port, and the coordinator looks them up there,
+ * so every call between the coordinator and the nodes goes through RMI. Checks that:
+ * <ul>
+ *     <li>distributed crawls of a {@code SyntheticWeb} download the same pages as a single crawler;</li>
+ *     <li>a crawl ends, if a node rejects forwarded links, and the links are reported as errors;</li>
+ *     <li>an interrupted crawl is cancelled on nodes without waiting for their remaining pages.</li>
+ * </ul>
+ */
+public class ClusterCheck {
+    private final static int PAGES_DEFAULT = 20_000;
+    private final static int HOSTS_DEFAULT = 50;
+    private final static int NODES_DEFAULT = 3;
+    private final static int DEPTH_DEFAULT = 6;
+    private final static int PORT_DEFAULT = 18_099;
+    private final static int STARTS = 5;
+    private final static long CANCEL_MILLIS = 2_000;
+    private final static Duration SLOW_LATENCY = Duration.ofMillis(50);
+
+    /**
+     * Run check.
+     *
+     * @param args "[pages [hosts [nodes [depth [port]]]]]"
+     */
+    public static void main(String[] args) throws Exception {
+        int pages = args.length >= 1 ? Integer.parseInt(args[0]) : PAGES_DEFAULT;
+        int hosts = args.length >= 2 ? Integer.parseInt(args[1]) : HOSTS_DEFAULT;
+        int nodes = args.length >= 3 ? Integer.parseInt(args[2]) : NODES_DEFAULT;
+        int depth = args.length >= 4 ? Integer.parseInt(args[3]) : DEPTH_DEFAULT;
+        int port = args.length >= 5 ? Integer.parseInt(args[4]) : PORT_DEFAULT;
+
+        SyntheticWeb web = new SyntheticWeb(SyntheticWeb.Shape.typical(pages, hosts));
+        List<String> names = IntStream.range(0, nodes).mapToObj(i -> "node" + i).toList();
+        Registry registry = LocateRegistry.createRegistry(port);
+
+        boolean ok = true;
+        try {
+            try (Cluster ignored = Cluster.bind(registry, names, () -> new WebCrawler(web, 16, 2, 4));
+                 WebCrawler single = new WebCrawler(web, 16, 2, 4)) {
+                DistributedCrawler distributed = DistributedCrawler.connect(LocateRegistry.getRegistry(port), names);
+                for (int start = 0; start < STARTS; start++) {
+                    for (List<String> excludes : List.of(List.<String>of(), List.of("host1"))) {
+                        Result expected = single.download(web.url(start), depth, excludes);
+                        Result actual = distributed.download(web.url(start), depth, excludes);
+                        ok &= report("start " + start + " excludes " + excludes, same(expected, actual));
+                    }
+                }
+
+                List<CrawlNode> stubs = lookup(LocateRegistry.getRegistry(port), names);
+                ok &= report("rejecting node", rejecting(web, names, stubs, depth));
+            }
+            ok &= report("cancel", cancel(pages, hosts, names, depth, registry, port));
+        } finally {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static List<CrawlNode> lookup(final Registry registry, final List<String> names)
+            throws RemoteException, NotBoundException {
+        List<CrawlNode> nodes = new ArrayList<>();
+        for (String name : names) {
+            nodes.add((CrawlNode) registry.lookup(name));
+        }
+        return nodes;
+    }
+
+    private static boolean report(final String check, final boolean ok) {
+        System.out.println(check + ": " + (ok ? "OK" : "FAILED"));
+        return ok;
+    }
+
+    private static boolean same(final Result expected, final Result actual) {
+        return new HashSet<>(expected.getDownloaded()).equals(new HashSet<>(actual.getDownloaded()))
+                && actual.getDownloaded().size() == new HashSet<>(actual.getDownloaded()).size()
+                && expected.getErrors().keySet().equals(actual.getErrors().keySet());
+    }
+
+    /**
+     * The last node rejects every batch of links but the first one, as if it had lost the crawl.
+     * The rejecting wrapper is exported as well, as other nodes get it in the assignment.
+     */
+    private static boolean rejecting(
+            final SyntheticWeb web,
+            final List<String> names,
+            final List<CrawlNode> cluster,
+            final int depth
+    ) throws RemoteException {
+        Rejecting rejecting = new Rejecting(cluster.get(cluster.size() - 1), new AtomicBoolean());
+        List<CrawlNode> nodes = new ArrayList<>(cluster);
+        nodes.set(nodes.size() - 1, (CrawlNode) UnicastRemoteObject.exportObject(rejecting, 0));
+
+        try {
+            Result result = new DistributedCrawler(names, nodes).download(web.url(0), depth, List.of());
+            return !result.getErrors().isEmpty();
+        } finally {
+            UnicastRemoteObject.unexportObject(rejecting, true);
+        }
+    }
+
+    /**
+     * Nodes of a slow web are bound under the same names, replacing the nodes of the other checks.
+     */
+    private static boolean cancel(
+            final int pages,
+            final int hosts,
+            final List<String> names,
+            final int depth,
+            final Registry registry,
+            final int port
+    ) throws InterruptedException, RemoteException, NotBoundException {
+        // Slow pages, so the crawl is far from its end when interrupted.
+        SyntheticWeb slow = new SyntheticWeb(new SyntheticWeb.Shape(pages, hosts, 1.1, 200, 0.1, SLOW_LATENCY, 1, 0.01, 0));
+        ExecutorService coordinator = Executors.newSingleThreadExecutor();
+        try (Cluster cluster = Cluster.bind(registry, names, () -> new WebCrawler(slow, 4, 1, 1))) {
+            DistributedCrawler distributed = DistributedCrawler.connect(LocateRegistry.getRegistry(port), names);
+            Future<Result> crawl = coordinator.submit(() -> distributed.download(slow.url(0), depth, List.of()));
+            Thread.sleep(CANCEL_MILLIS / 4);
+            long start = System.nanoTime();
+            crawl.cancel(true);
+            coordinator.shutdown();
+            return coordinator.awaitTermination(CANCEL_MILLIS, TimeUnit.MILLISECONDS)
+                    && System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(CANCEL_MILLIS);
+        } finally {
+            coordinator.shutdownNow();
+        }
+    }
+
+    /**
+     * Nodes bound to a registry, with their crawlers.
+     */
+    private record Cluster(List<WebCrawlerNode> nodes, List<WebCrawler> crawlers) implements AutoCloseable {
+        static Cluster bind(final Registry registry, final List<String> names, final Supplier<WebCrawler> crawlers)
+                throws RemoteException {
+            Cluster cluster = new Cluster(new ArrayList<>(), new ArrayList<>());
+            try {
+                for (String name : names) {
+                    WebCrawler crawler = crawlers.get();
+                    cluster.crawlers().add(crawler);
+                    WebCrawlerNode node = new WebCrawlerNode(name, crawler);
+                    cluster.nodes().add(node);
+                    registry.rebind(name, UnicastRemoteObject.exportObject(node, 0));
+                }
+            } catch (RemoteException e) {
+                cluster.close();
+                throw e;
+            }
+            return cluster;
+        }
+
+        /**
+         * Unexports the nodes and closes the crawlers.
+         */
+        @Override
+        public void close() {
+            nodes.forEach(WebCrawlerNode::close);
+            crawlers.forEach(WebCrawler::close);
+        }
+    }
+
+    private record Rejecting(CrawlNode node, AtomicBoolean accepted) implements CrawlNode {
+        @Override
+        public void start(final Assignment assignment) throws RemoteException {
+            node.start(assignment);
+        }
+
+        @Override
+        public void accept(final long crawl, final List<Link> links) throws RemoteException {
+            // The first batch may be the start URL, that must be accepted for the crawl to start.
+            if (accepted.getAndSet(true)) {
+                throw new IllegalStateException("Crawl " + crawl + " is not started");
+            }
+            node.accept(crawl, links);
+        }
+
+        @Override
+        public Status status(final long crawl) throws RemoteException {
+            return node.status(crawl);
+        }
+
+        @Override
+        public Part finish(final long crawl) throws RemoteException {
+            return node.finish(crawl);
+        }
+
+        @Override
+        public Part cancel(final long crawl) throws RemoteException {
+            return node.cancel(crawl);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package info.kgeorgiy.ja.ulin.benchmark;
+
+import info.kgeorgiy.ja.ulin.crawler.CrawlerMetrics;
+import info.kgeorgiy.ja.ulin.crawler.WebCrawler;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks of {@code WebCrawler} on a {@link SyntheticWeb}.
+ * <p>
+ * Modes:
+ * <ul>
+ *     <li>{@code grid} crawls the same web with every combination of {@code downloaders}, {@code extractors}
+ *     and {@code perHost}, and prints wall time, throughput and peak heap of every crawl;</li>
+ *     <li>{@code soak} crawls the web again and again for the given number of minutes,
+ *     printing metrics of the crawler every ten seconds, to find leaks and slowdowns.</li>
+ * </ul>
+ */
+public class CrawlBenchmark {
+    private final static int PAGES_DEFAULT = 100_000;
+    private final static int HOSTS_DEFAULT = 100;
+    private final static int DEPTH_DEFAULT = 6;
+    private final static int MINUTES_DEFAULT = 10;
+    private final static int REPORT_SECONDS = 10;
+    private final static int SAMPLE_MILLIS = 10;
+
+    private final static int[] DOWNLOADERS = {8, 32, 128};
+    private final static int[] EXTRACTORS = {1, 4};
+    private final static int[] PER_HOST = {1, 4, 16};
+
+    private final static MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    /**
+     * Run benchmark.
+     *
+     * @param args "grid [pages [hosts [depth]]]" or "soak [pages [hosts [depth [minutes]]]]".
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args == null || args.length < 1) {
+            System.err.println("Not enough argument: expected \"mode [pages [hosts [depth [minutes]]]]\"");
+            return;
+        }
+
+        int pages = args.length >= 2 ? Integer.parseInt(args[1]) : PAGES_DEFAULT;
+        int hosts = args.length >= 3 ? Integer.parseInt(args[2]) : HOSTS_DEFAULT;
+        int depth = args.length >= 4 ? Integer.parseInt(args[3]) : DEPTH_DEFAULT;
+        int minutes = args.length >= 5 ? Integer.parseInt(args[4]) : MINUTES_DEFAULT;
+
+        SyntheticWeb web = new SyntheticWeb(SyntheticWeb.Shape.typical(pages, hosts));
+
+        switch (args[0]) {
+            case "grid" -> grid(web, depth);
+            case "soak" -> soak(web, depth, minutes);
+            default -> System.err.println("Unknown mode: " + args[0]);
+        }
+    }
+
+    private static void grid(SyntheticWeb web, int depth) throws InterruptedException {
+        System.out.println("downloaders\textractors\tperHost\tpages\tms\tpages/s\tpeak MB");
+        for (int downloaders : DOWNLOADERS) {
+            for (int extractors : EXTRACTORS) {
+                for (int perHost : PER_HOST) {
+                    try (WebCrawler crawler = new WebCrawler(web, downloaders, extractors, perHost)) {
+                        Run run = measure(() -> crawler.download(web.url(0), depth));
+                        System.out.printf("%d\t%d\t%d\t%d\t%.0f\t%.0f\t%d%n",
+                                downloaders, extractors, perHost, run.pages(), run.millis(),
+                                run.pages() * 1000 / run.millis(), run.peakBytes() >> 20);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void soak(SyntheticWeb web, int depth, int minutes) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.MINUTES.toNanos(minutes);
+        try (WebCrawler crawler = new WebCrawler(web, DOWNLOADERS[1], EXTRACTORS[1], PER_HOST[1])) {
+            Thread reporter = Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(REPORT_SECONDS));
+                        CrawlerMetrics metrics = crawler.metrics();
+                        System.out.printf("%.0f pages/s, %d downloading, %d in host queues, heap %d MB, errors %s%n",
+                                metrics.pagesPerSecond(), metrics.downloading(), metrics.hostQueue(),
+                                MEMORY.getHeapMemoryUsage().getUsed() >> 20, metrics.errors());
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            });
+
+            for (int crawls = 0; System.nanoTime() < end; ++crawls) {
+                // Every crawl starts from another page, so it doesn't repeat the previous one.
+                String start = web.url(crawls);
+                Run run = measure(() -> crawler.download(start, depth));
+                System.out.printf("crawl %d: %d pages in %.0f ms, peak heap %d MB%n",
+                        crawls + 1, run.pages(), run.millis(), run.peakBytes() >> 20);
+            }
+            reporter.interrupt();
+        }
+    }
+
+    /**
+     * Runs a crawl, sampling used heap meanwhile.
+     */
+    private static Run measure(Crawl crawl) throws InterruptedException {
+        System.gc();
+        AtomicLong peak = new AtomicLong(MEMORY.getHeapMemoryUsage().getUsed());
+        Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+            try {
+                while (true) {
+                    peak.accumulateAndGet(MEMORY.getHeapMemoryUsage().getUsed(), Math::max);
+                    Thread.sleep(SAMPLE_MILLIS);
+                }
+            } catch (InterruptedException ignore) {
+            }
+        });
+
+        long start = System.nanoTime();
+        Result result = crawl.run();
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        sampler.interrupt();
+        sampler.join();
+        return new Run(result.getDownloaded().size(), millis, peak.get());
+    }
+
+    private record Run(int pages, double millis, long peakBytes) {
+    }
+
+    @FunctionalInterface
+    private interface Crawl {
+        Result run();
+    }
+}
@@ -0,0 +1,149 @@
+package info.kgeorgiy.ja.ulin.benchmark;
+
+import info.kgeorgiy.ja.ulin.iterative.IterativeParallelism;
+import info.kgeorgiy.ja.ulin.iterative.ParallelMapperImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * JMH benchmarks of {@code IterativeParallelism} against JDK parallel streams.
+ * <p>
+ * Every operation is run with three backends: {@code IterativeParallelism} with its own threads,
+ * {@code IterativeParallelism} on top of {@code ParallelMapperImpl}, and parallel stream in a
+ * {@code ForkJoinPool} of {@code threads} threads. With {@code threads} equal to {@code 0} every backend
+ * uses the parallelism of the common pool, and parallel streams run in the common pool itself.
+ * Run with {@code -prof gc} to get allocation per operation.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IterativeBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    private int size;
+
+    /**
+     * Number of threads, or {@code 0} for the common pool.
+     */
+    @Param({"1", "4", "16", "0"})
+    private int threads;
+
+    /**
+     * Number of iterations of a hash loop per element.
+     */
+    @Param({"1", "100"})
+    private int cost;
+
+    @Param({"iterative", "mapper", "forkJoin"})
+    private String backend;
+
+    private int parallelism;
+    private List<Integer> list;
+    private ParallelMapperImpl mapper;
+    private IterativeParallelism ip;
+    private ForkJoinPool pool;
+    private Function<Integer, Integer> work;
+
+    @Setup
+    public void setup() {
+        parallelism = threads == 0 ? ForkJoinPool.getCommonPoolParallelism() : threads;
+        list = IntStream.range(0, size).boxed().collect(Collectors.toList());
+        work = x -> {
+            int h = x;
+            for (int i = 0; i < cost; ++i) {
+                h = h * 31 + i;
+            }
+            return h;
+        };
+
+        switch (backend) {
+            case "iterative" -> ip = new IterativeParallelism();
+            case "mapper" -> {
+                mapper = new ParallelMapperImpl(parallelism);
+                ip = new IterativeParallelism(mapper);
+            }
+            case "forkJoin" -> pool = threads == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(threads);
+            default -> throw new IllegalArgumentException("Unknown backend: " + backend);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mapper != null) {
+            mapper.close();
+        }
+        if (pool != null && pool != ForkJoinPool.commonPool()) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public int argMax() throws Exception {
+        Comparator<Integer> comparator = Comparator.comparing(work);
+        if (ip != null) {
+            return ip.argMax(parallelism, list, comparator);
+        }
+
+        return inPool(() -> IntStream.range(0, size).parallel().boxed()
+                .max(Comparator.comparing(list::get, comparator)).orElse(-1));
+    }
+
+    @Benchmark
+    public void filter(Blackhole blackhole) throws Exception {
+        if (ip != null) {
+            blackhole.consume(ip.filter(parallelism, list, x -> (work.apply(x) & 1) == 0));
+        } else {
+            blackhole.consume(inPool(() -> list.parallelStream().filter(x -> (work.apply(x) & 1) == 0).toList()));
+        }
+    }
+
+    @Benchmark
+    public void map(Blackhole blackhole) throws Exception {
+        if (ip != null) {
+            blackhole.consume(ip.map(parallelism, list, work));
+        } else {
+            blackhole.consume(inPool(() -> list.parallelStream().map(work).toList()));
+        }
+    }
+
+    @Benchmark
+    public int reduce() throws Exception {
+        // Ties are broken by value, so the maximum is unique, and the first element is an identity,
+        // as it is already in the list and max is idempotent.
+        Comparator<Integer> byWork = Comparator.comparing(work).thenComparing(Comparator.naturalOrder());
+        BinaryOperator<Integer> maxByWork = BinaryOperator.maxBy(byWork);
+        Integer identity = list.get(0);
+        if (ip != null) {
+            return ip.reduce(parallelism, list, identity, maxByWork);
+        }
+
+        return inPool(() -> list.parallelStream().reduce(identity, maxByWork));
+    }
+
+    @Benchmark
+    public int mapReduce() throws Exception {
+        if (ip != null) {
+            return ip.mapReduce(parallelism, list, work, 0, Integer::sum);
+        }
+
+        return inPool(() -> list.parallelStream().map(work).reduce(0, Integer::sum));
+    }
+
+    private <R> R inPool(Callable<R> task) throws InterruptedException, ExecutionException {
+        return pool.submit(task).get();
+    }
+}
@@ -0,0 +1,191 @@
+package info.kgeorgiy.ja.ulin.benchmark;
+
+import info.kgeorgiy.ja.ulin.iterative.IterativeParallelism;
+import info.kgeorgiy.ja.ulin.iterative.ParallelMapperImpl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Simple benchmarks for {@code ParallelMapperImpl} and {@code IterativeParallelism}.
+ * <p>
+ * Modes:
+ * <ul>
+ *     <li>{@code scaling} prints scaling curve of {@code map} from one thread to the number of available cores;</li>
+ *     <li>{@code mapReduce} compares fused {@code mapReduce} with {@code map} followed by {@code reduce};</li>
+ *     <li>{@code latency} prints latency of small {@code map} calls with and without a big call running.</li>
+ * </ul>
+ */
+public class ParallelBenchmark {
+    private final static int SIZE_DEFAULT = 1_000_000;
+    private final static int COST_DEFAULT = 100;
+    private final static int WARMUP = 5;
+    private final static int ITERATIONS = 10;
+    private final static int SMALL_CALLS = 1000;
+
+    private final static com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Run benchmark.
+     *
+     * @param args "scaling [size [maxThreads [cost]]]", "mapReduce [size [threads [cost]]]"
+     *             or "latency [size [threads [cost]]]", where cost is a number of iterations per element.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args == null || args.length < 1) {
+            System.err.println("Not enough argument: expected \"mode [size [threads [cost]]]\"");
+            return;
+        }
+
+        int size = args.length >= 2 ? Integer.parseInt(args[1]) : SIZE_DEFAULT;
+        int threads = args.length >= 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int cost = args.length >= 4 ? Integer.parseInt(args[3]) : COST_DEFAULT;
+
+        List<Integer> list = IntStream.range(0, size).boxed().collect(Collectors.toList());
+
+        switch (args[0]) {
+            case "scaling" -> scaling(list, threads, cost);
+            case "mapReduce" -> mapReduce(list, threads, cost);
+            case "latency" -> latency(list, threads, cost);
+            default -> System.err.println("Unknown mode: " + args[0]);
+        }
+    }
+
+    private static void scaling(List<Integer> list, int maxThreads, int cost) throws InterruptedException {
+        Function<Integer, Integer> function = work(cost);
+
+        System.out.println("threads\tms/op\tspeedup");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; ++threads) {
+            double time;
+            try (ParallelMapperImpl mapper = new ParallelMapperImpl(threads)) {
+                time = measure(() -> mapper.map(function, list)).millis();
+            }
+
+            if (threads == 1) {
+                base = time;
+            }
+            System.out.printf("%d\t%.2f\t%.2f%n", threads, time, base / time);
+        }
+    }
+
+    private static void mapReduce(List<Integer> list, int threads, int cost) throws InterruptedException {
+        Function<Integer, Integer> function = work(cost);
+
+        // Mapper threads are long-living, so their allocations are visible to the measurement.
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(threads)) {
+            IterativeParallelism ip = new IterativeParallelism(mapper);
+
+            Result fused = measure(() -> ip.mapReduce(threads, list, function, 0, Integer::sum));
+            Result twoPass = measure(() -> ip.reduce(threads, ip.map(threads, list, function), 0, Integer::sum));
+
+            System.out.println("variant\tms/op\tKB/op");
+            System.out.printf("fused\t%.2f\t%d%n", fused.millis(), fused.bytes() / 1024);
+            System.out.printf("map+reduce\t%.2f\t%d%n", twoPass.millis(), twoPass.bytes() / 1024);
+        }
+    }
+
+    /**
+     * Small calls map one element per thread. The big call maps the whole list over and over in another thread.
+     */
+    private static void latency(List<Integer> list, int threads, int cost) throws InterruptedException {
+        Function<Integer, Integer> function = work(cost);
+        List<Integer> small = list.subList(0, Math.min(threads, list.size()));
+
+        try (ParallelMapperImpl mapper = new ParallelMapperImpl(threads)) {
+            System.out.println("background\tp50 us\tp99 us\tmax us");
+            printLatencies("none", smallLatencies(mapper, function, small));
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread big = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        mapper.map(function, list);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            big.start();
+            try {
+                printLatencies("big map", smallLatencies(mapper, function, small));
+            } finally {
+                running.set(false);
+                big.join();
+            }
+        }
+    }
+
+    private static long[] smallLatencies(ParallelMapperImpl mapper, Function<Integer, Integer> function, List<Integer> small) throws InterruptedException {
+        for (int i = 0; i < SMALL_CALLS; ++i) {
+            mapper.map(function, small);
+        }
+
+        long[] latencies = new long[SMALL_CALLS];
+        for (int i = 0; i < SMALL_CALLS; ++i) {
+            long start = System.nanoTime();
+            mapper.map(function, small);
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void printLatencies(String background, long[] sorted) {
+        System.out.printf(
+                "%s\t%.1f\t%.1f\t%.1f%n",
+                background,
+                sorted[sorted.length / 2] / 1e3,
+                sorted[sorted.length * 99 / 100] / 1e3,
+                sorted[sorted.length - 1] / 1e3
+        );
+    }
+
+    static Function<Integer, Integer> work(int cost) {
+        return x -> {
+            int h = x;
+            for (int i = 0; i < cost; ++i) {
+                h = h * 31 + i;
+            }
+            return h;
+        };
+    }
+
+    static Result measure(Action action) throws InterruptedException {
+        for (int i = 0; i < WARMUP; ++i) {
+            action.run();
+        }
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            action.run();
+        }
+
+        return new Result(
+                (System.nanoTime() - start) / 1e6 / ITERATIONS,
+                (allocatedBytes() - bytes) / ITERATIONS
+        );
+    }
+
+    /**
+     * Bytes allocated by all live threads. Allocations of terminated threads are lost.
+     */
+    private static long allocatedBytes() {
+        return Arrays.stream(THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())).filter(b -> b > 0).sum();
+    }
+
+    record Result(double millis, long bytes) {
+    }
+
+    @FunctionalInterface
+    interface Action {
+        void run() throws InterruptedException;
+    }
+}
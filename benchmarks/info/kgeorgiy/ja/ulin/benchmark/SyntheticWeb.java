@@ -0,0 +1,173 @@
+package info.kgeorgiy.ja.ulin.benchmark;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Downloader of a synthetic web, to benchmark crawlers without the network.
+ * <p>
+ * Pages are numbered and spread evenly over hosts. Links of a page are generated from its number, so the graph
+ * takes no memory and is the same for the same seed. The number of links of a page follows a power law,
+ * and a part of links repeats earlier links of the same page.
+ * </p>
+ * <p>
+ * Every host has its own median latency, spread log-normally around {@code latency}, and every download
+ * takes a log-normal time around the median of its host. Every host also has its own failure rate,
+ * spread uniformly up to twice {@code failures}. Whether a page fails is decided by its number,
+ * so the result of a crawl is reproducible.
+ * </p>
+ */
+public class SyntheticWeb implements Downloader {
+    private final static double REQUEST_SPREAD = 0.5;
+
+    private final Shape shape;
+    private final double[] hostLatency;
+    private final double[] hostFailures;
+
+    /**
+     * Shape of a synthetic web.
+     *
+     * @param pages number of pages.
+     * @param hosts number of hosts.
+     * @param fanOutExponent exponent of the power law of the number of links, greater is lighter tail.
+     * @param maxFanOut maximal number of links of a page.
+     * @param duplicates probability that a link repeats an earlier link of the page.
+     * @param latency median latency of a download.
+     * @param hostSpread standard deviation of the logarithm of the median latency of a host.
+     * @param failures mean probability that a page fails to download.
+     * @param seed seed of the graph.
+     */
+    public record Shape(
+            int pages,
+            int hosts,
+            double fanOutExponent,
+            int maxFanOut,
+            double duplicates,
+            Duration latency,
+            double hostSpread,
+            double failures,
+            long seed
+    ) {
+        /**
+         * Shape with typical parameters: mean fan-out about five with rare pages of hundreds of links,
+         * a tenth of duplicate links, a millisecond of latency and one percent of failures.
+         *
+         * @param pages number of pages.
+         * @param hosts number of hosts.
+         * @return shape of a web.
+         */
+        public static Shape typical(final int pages, final int hosts) {
+            return new Shape(pages, hosts, 1.1, 200, 0.1, Duration.ofMillis(1), 1, 0.01, 0);
+        }
+    }
+
+    public SyntheticWeb(final Shape shape) {
+        if (shape.pages() <= 0 || shape.hosts() <= 0 || shape.maxFanOut() < 0) {
+            throw new IllegalArgumentException("Numbers of pages and hosts must be positive");
+        }
+
+        this.shape = shape;
+        this.hostLatency = new double[shape.hosts()];
+        this.hostFailures = new double[shape.hosts()];
+
+        Random random = new Random(shape.seed());
+        for (int i = 0; i < shape.hosts(); ++i) {
+            hostLatency[i] = shape.latency().toNanos() * Math.exp(shape.hostSpread() * random.nextGaussian());
+            hostFailures[i] = Math.min(1, shape.failures() * 2 * random.nextDouble());
+        }
+    }
+
+    /**
+     * Returns URL of a page.
+     *
+     * @param page number of the page.
+     * @return URL of the page.
+     */
+    public String url(final int page) {
+        return "http://host" + host(page) + ".test/page" + page;
+    }
+
+    @Override
+    public Document download(final String url) throws IOException {
+        int page = page(url);
+        int host = host(page);
+
+        double nanos = hostLatency[host] * Math.exp(REQUEST_SPREAD * ThreadLocalRandom.current().nextGaussian());
+        try {
+            Thread.sleep(Duration.ofNanos((long) nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + url, e);
+        }
+
+        if (uniform(page) < hostFailures[host]) {
+            throw new IOException("Synthetic failure of " + url);
+        }
+
+        return () -> links(page);
+    }
+
+    private List<String> links(final int page) {
+        Random random = new Random(mix(shape.seed() ^ mix(page)));
+        // Pareto distribution with minimum 1.
+        double pareto = Math.pow(1 - random.nextDouble(), -1 / shape.fanOutExponent());
+        int count = (int) Math.min(shape.maxFanOut(), pareto);
+
+        List<String> links = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            if (i > 0 && random.nextDouble() < shape.duplicates()) {
+                links.add(links.get(random.nextInt(i)));
+            } else {
+                links.add(url(random.nextInt(shape.pages())));
+            }
+        }
+        return links;
+    }
+
+    private int host(final int page) {
+        return (int) Long.remainderUnsigned(mix(shape.seed() + page), shape.hosts());
+    }
+
+    /**
+     * Number in {@code [0, 1)} fixed for a page.
+     */
+    private double uniform(final int page) {
+        return (mix(shape.seed() * 31 + page * 7L + 1) >>> 11) * 0x1.0p-53;
+    }
+
+    private int page(final String url) throws IOException {
+        int start = url.lastIndexOf("/page");
+        if (start < 0) {
+            throw new IOException("No such page: " + url);
+        }
+
+        try {
+            int page = Integer.parseInt(url.substring(start + "/page".length()));
+            if (page < 0 || page >= shape.pages()) {
+                throw new IOException("No such page: " + url);
+            }
+            return page;
+        } catch (NumberFormatException e) {
+            throw new IOException("No such page: " + url, e);
+        }
+    }
+
+    /**
+     * Finalizer of MurmurHash3, that spreads every bit of the value over the result.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
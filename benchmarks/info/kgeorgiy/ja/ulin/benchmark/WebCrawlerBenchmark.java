@@ -0,0 +1,65 @@
+package info.kgeorgiy.ja.ulin.benchmark;
+
+import info.kgeorgiy.ja.ulin.crawler.WebCrawler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of {@code WebCrawler} on a {@code SyntheticWeb}.
+ * <p>
+ * Every operation is a whole crawl of the same web, so the score is the wall time of a crawl.
+ * Run with {@code -prof gc} to get allocation per crawl.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebCrawlerBenchmark {
+    @Param({"10000", "100000"})
+    private int pages;
+
+    @Param({"10", "1000"})
+    private int hosts;
+
+    @Param({"6"})
+    private int depth;
+
+    @Param({"8", "64"})
+    private int downloaders;
+
+    @Param({"1", "4"})
+    private int extractors;
+
+    @Param({"1", "8"})
+    private int perHost;
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    private SyntheticWeb web;
+    private WebCrawler crawler;
+
+    @Setup
+    public void setup() {
+        web = new SyntheticWeb(SyntheticWeb.Shape.typical(pages, hosts));
+        crawler = switch (threads) {
+            case "platform" -> new WebCrawler(web, downloaders, extractors, perHost);
+            case "virtual" -> WebCrawler.withVirtualThreads(web, downloaders, extractors, perHost);
+            default -> throw new IllegalArgumentException("Unknown threads: " + threads);
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        crawler.close();
+    }
+
+    @Benchmark
+    public int crawl() {
+        return crawler.download(web.url(0), depth).getDownloaded().size();
+    }
+}
@@ -0,0 +1,178 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Probabilistic visited set, based on a scalable Bloom filter.
+ * <p>
+ * A pair of a URL and a depth is added to the filter for every depth the URL is visited with,
+ * and the depth of a URL is the greatest depth the filter contains it with. The filter is a chain of stages,
+ * every next one is twice as large and has twice lower false-positive rate, so the set grows with the crawl.
+ * A lookup checks one key per depth, so every key gets {@code rate / depths} of the rate,
+ * and the probability that a lookup returns a greater depth than the URL was visited with stays below {@code rate}.
+ * </p>
+ * <p>
+ * A false positive makes the crawl skip a URL, that wasn't visited, or skip links a page has with a greater depth.
+ * A URL takes about {@code 1.44 * log2(depths / rate)} bits per visited depth.
+ * </p>
+ */
+public class BloomVisitedSet implements VisitedSet {
+    private final static int LOCKS = 1024;
+    private final static long DEPTH_SALT = 0x9E3779B97F4A7C15L;
+
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    private final Object[] locks = new Object[LOCKS];
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final int depths;
+
+    /**
+     * Creates an empty set.
+     *
+     * @param expected expected number of visits, the first stage is sized for it.
+     * @param rate maximal false-positive rate of a lookup, between {@code 0} and {@code 1}.
+     * @param depths maximal depth URLs are visited with, that is the depth of the crawl.
+     */
+    public BloomVisitedSet(final long expected, final double rate, final int depths) {
+        if (expected <= 0 || rate <= 0 || rate >= 1 || depths <= 0) {
+            throw new IllegalArgumentException("Expected visits and depths must be positive and rate must be in (0, 1)");
+        }
+
+        this.depths = depths;
+        for (int i = 0; i < LOCKS; ++i) {
+            locks[i] = new Object();
+        }
+        // Rates of stages are rate / depths / 2, rate / depths / 4, ..., so their sum is below rate / depths.
+        stages.add(new Stage(expected, rate / depths / 2));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the depth is greater than the one the set is created for.
+     */
+    @Override
+    public int visit(final String url, final int depth) {
+        if (depth > depths) {
+            throw new IllegalArgumentException("Depth " + depth + " is greater than " + depths);
+        }
+
+        long fingerprint = FingerprintVisitedSet.fingerprint(url);
+        synchronized (locks[(int) (fingerprint >>> 32) & (LOCKS - 1)]) {
+            int previous = depth(fingerprint);
+            if (depth > previous) {
+                maxDepth.accumulateAndGet(depth, Math::max);
+                add(key(fingerprint, depth));
+            }
+            return previous;
+        }
+    }
+
+    @Override
+    public int depth(final String url) {
+        return depth(FingerprintVisitedSet.fingerprint(url));
+    }
+
+    @Override
+    public int depthLimit() {
+        return depths;
+    }
+
+    private int depth(final long fingerprint) {
+        for (int depth = maxDepth.get(); depth > 0; --depth) {
+            long key = key(fingerprint, depth);
+            for (Stage stage : stages) {
+                if (stage.contains(key)) {
+                    return depth;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds a key to the last stage, adding a larger one while it is full.
+     * Other threads may fill a new stage before the key gets there, so adding is retried until it succeeds.
+     */
+    private void add(final long key) {
+        while (!stages.getLast().add(key)) {
+            synchronized (stages) {
+                Stage last = stages.getLast();
+                if (last.isFull()) {
+                    stages.add(new Stage(last.capacity * 2, last.rate / 2));
+                }
+            }
+        }
+    }
+
+    private static long key(final long fingerprint, final int depth) {
+        return FingerprintVisitedSet.mix(fingerprint + depth * DEPTH_SALT);
+    }
+
+    /**
+     * Plain Bloom filter, that accepts up to {@code capacity} keys.
+     */
+    private static class Stage {
+        private final long capacity;
+        private final double rate;
+        private final AtomicLongArray bits;
+        private final long size;
+        private final int hashes;
+        private final AtomicInteger count = new AtomicInteger();
+
+        Stage(final long capacity, final double rate) {
+            this.capacity = capacity;
+            this.rate = rate;
+
+            double ln2 = Math.log(2);
+            long optimal = (long) Math.ceil(-capacity * Math.log(rate) / (ln2 * ln2));
+            this.bits = new AtomicLongArray((int) Math.min((optimal + Long.SIZE - 1) / Long.SIZE, Integer.MAX_VALUE - 8));
+            this.size = (long) bits.length() * Long.SIZE;
+            this.hashes = Math.max(1, (int) Math.round(-Math.log(rate) / ln2));
+        }
+
+        boolean isFull() {
+            return count.get() >= capacity;
+        }
+
+        /**
+         * Adds a key, if the filter is not full.
+         *
+         * @return {@code false} if the filter is full.
+         */
+        boolean add(final long key) {
+            if (count.getAndIncrement() >= capacity) {
+                count.decrementAndGet();
+                return false;
+            }
+
+            long step = FingerprintVisitedSet.mix(key) | 1;
+            for (int i = 0; i < hashes; ++i) {
+                long bit = index(key, step, i);
+                bits.getAndAccumulate((int) (bit >>> 6), 1L << bit, (word, mask) -> word | mask);
+            }
+            return true;
+        }
+
+        /**
+         * Position of the {@code i}-th bit of the key. Plain double hashing {@code key + i * step}
+         * gives overlapping sequences for keys with close low bits, so every position is mixed again.
+         */
+        private long index(final long key, final long step, final int i) {
+            return Long.remainderUnsigned(FingerprintVisitedSet.mix(key + i * step), size);
+        }
+
+        boolean contains(final long key) {
+            long step = FingerprintVisitedSet.mix(key) | 1;
+            for (int i = 0; i < hashes; ++i) {
+                long bit = index(key, step, i);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.io.IOException;
+
+/**
+ * Downloader, that can skip pages not modified since a known version, like HTTP conditional requests do.
+ */
+public interface ConditionalDownloader extends Downloader {
+    /**
+     * Returns validator of a document downloaded by this downloader, such as its {@code ETag}.
+     *
+     * @param document downloaded document.
+     * @return validator of the document, or {@code null} if it has none.
+     */
+    String validator(Document document);
+
+    /**
+     * Downloads a page, if it was modified.
+     *
+     * @param url URL of the page.
+     * @param validator validator of the known version of the page.
+     * @return downloaded document, or {@code null} if the page wasn't modified.
+     * @throws IOException if an error occurred.
+     */
+    Document downloadIfModified(String url, String validator) throws IOException;
+}
@@ -0,0 +1,41 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+
+import java.io.IOException;
+
+/**
+ * Receiver of pages of a crawl as soon as they are downloaded.
+ * <p>
+ * Methods are called concurrently from downloader threads, and a download slot is held until the call returns,
+ * so a slow listener slows the crawl down instead of piling results up. Methods must not throw.
+ * </p>
+ */
+public interface CrawlListener {
+    /**
+     * Called once per downloaded page.
+     *
+     * @param url URL of the page.
+     * @param document downloaded document.
+     */
+    void downloaded(String url, Document document);
+
+    /**
+     * Called once per page that failed to download.
+     *
+     * @param url URL of the page.
+     * @param error error of the download.
+     */
+    void failed(String url, IOException error);
+
+    /**
+     * Called when a page, that was already reported as downloaded, is reached with a greater depth,
+     * but fails to download again. Links of the page are not followed with the greater depth,
+     * so pages reachable only through them may be missing from the crawl. Does nothing by default.
+     *
+     * @param url URL of the page.
+     * @param error error of the last download.
+     */
+    default void incomplete(String url, IOException error) {
+    }
+}
@@ -0,0 +1,104 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node of a distributed crawl, that crawls its own part of hosts.
+ * <p>
+ * Hosts are assigned to nodes by consistent hashing of their names. A node downloads pages of its hosts only,
+ * with its own per-host limits and visited set, and forwards links to other hosts to their owners in batches.
+ * A crawl is driven by a {@link DistributedCrawler}: it starts the crawl on every node, sends the start URL
+ * to its owner, polls the nodes until all of them are idle, and then finishes the crawl and merges the parts.
+ * </p>
+ */
+public interface CrawlNode extends Remote {
+    /**
+     * Starts a crawl on this node. Links are accepted after this call returns.
+     *
+     * @param assignment crawl to start.
+     * @throws RemoteException if the node is unreachable.
+     */
+    void start(Assignment assignment) throws RemoteException;
+
+    /**
+     * Adds links of hosts of this node to a crawl.
+     *
+     * @param crawl identifier of the crawl.
+     * @param links links to crawl.
+     * @throws RemoteException if the node is unreachable.
+     */
+    void accept(long crawl, List<Link> links) throws RemoteException;
+
+    /**
+     * Returns progress of a crawl on this node.
+     *
+     * @param crawl identifier of the crawl.
+     * @return state of the crawl.
+     * @throws RemoteException if the node is unreachable.
+     */
+    Status status(long crawl) throws RemoteException;
+
+    /**
+     * Ends a crawl on this node and returns its part of the result.
+     *
+     * @param crawl identifier of the crawl.
+     * @return pages downloaded and failed by this node.
+     * @throws RemoteException if the node is unreachable.
+     */
+    Part finish(long crawl) throws RemoteException;
+
+    /**
+     * Aborts a crawl on this node without waiting for its remaining pages.
+     *
+     * @param crawl identifier of the crawl.
+     * @return pages downloaded and failed by this node so far.
+     * @throws RemoteException if the node is unreachable.
+     */
+    Part cancel(long crawl) throws RemoteException;
+
+    /**
+     * Crawl to run on every node.
+     *
+     * @param crawl identifier of the crawl.
+     * @param names names of all nodes, in the same order on every node.
+     * @param nodes all nodes, including this one.
+     * @param hosts skipped hosts, or substrings of them.
+     * @param exact whether {@code hosts} are matched exactly or as substrings.
+     */
+    record Assignment(long crawl, List<String> names, List<CrawlNode> nodes, List<String> hosts, boolean exact)
+            implements Serializable {
+    }
+
+    /**
+     * Forwarded link.
+     *
+     * @param url URL of the link.
+     * @param depth remaining depth of the URL.
+     */
+    record Link(String url, int depth) implements Serializable {
+    }
+
+    /**
+     * Progress of a crawl on a node.
+     *
+     * @param idle whether the node has nothing to download, extract or forward.
+     * @param sent number of batches sent to other nodes.
+     * @param received number of batches received from other nodes or the coordinator.
+     */
+    record Status(boolean idle, long sent, long received) implements Serializable {
+    }
+
+    /**
+     * Result of a crawl on a node.
+     *
+     * @param downloaded downloaded pages.
+     * @param errors pages failed to download.
+     */
+    record Part(List<String> downloaded, Map<String, IOException> errors) implements Serializable {
+    }
+}
@@ -0,0 +1,363 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent state of a crawl, that allows to resume it after a restart.
+ * <p>
+ * Every change is appended to a log, that is flushed every {@code FLUSH_MILLIS}, so a crash loses
+ * only the last changes. Once the log has as many records as the snapshot, but at least {@code MIN_LOG_RECORDS},
+ * it is put aside and merged with the snapshot in background, while new records go to a new log.
+ * So merges rewrite a constant number of records per appended one on average, and appends never wait for them.
+ * </p>
+ * <p>
+ * Seen URLs are not kept in memory: they are read from the snapshot on restore, and a merge keeps fingerprints
+ * of URLs, and full URLs of repeated records only. On open, all files are merged into the snapshot; a record cut
+ * by a crash at the end of a log is ignored. Merging a record twice is harmless.
+ * </p>
+ */
+class CrawlStore implements Closeable {
+    private final static String LOG = "crawl.log";
+    private final static String OLD_LOG = "crawl.log.old";
+    private final static String SNAPSHOT = "crawl.snapshot";
+    private final static int MIN_LOG_RECORDS = 100_000;
+    private final static int BUFFER_SIZE = 1 << 16;
+    private final static long FLUSH_MILLIS = 100;
+
+    private final static byte SEEN = 1;
+    private final static byte DOWNLOADED = 2;
+    private final static byte ERROR = 3;
+    private final static byte EXTRACTED = 4;
+
+    private final Path directory;
+    private final Set<String> downloaded = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> errors = new ConcurrentHashMap<>();
+    private final VisitedSet extracted = new FingerprintVisitedSet();
+    private final ScheduledExecutorService background = Executors.newScheduledThreadPool(
+            2, Thread.ofPlatform().daemon().name("crawl-store").factory()
+    );
+    private DataOutputStream log;
+    private long logRecords = 0;
+    private long snapshotRecords;
+    private boolean merging = false;
+    private int readers = 0;
+    private IOException failure = null;
+
+    /**
+     * Opens the store in the directory, restoring the state saved in it.
+     *
+     * @param directory directory of the store, created if needed.
+     * @throws IOException if the state can't be read.
+     */
+    CrawlStore(final Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        // The old log is left by a crash during a merge.
+        List<Path> files = List.of(file(SNAPSHOT), file(OLD_LOG), file(LOG));
+        for (Path file : files) {
+            replay(file);
+        }
+        snapshotRecords = merge(files);
+        Files.deleteIfExists(file(OLD_LOG));
+        log = open();
+
+        background.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Passes every URL seen before the store was opened, with the maximal remaining depth it was reached with.
+     * Should be called before any merge starts, that is before {@code MIN_LOG_RECORDS} records are appended.
+     *
+     * @param action receiver of URLs and depths.
+     * @throws IOException if the state can't be read.
+     */
+    void forEachSeen(final BiConsumer<String, Integer> action) throws IOException {
+        synchronized (this) {
+            ++readers;
+        }
+        try {
+            // Records of the snapshot are unique, as it was merged on open.
+            read(file(SNAPSHOT), (type, url, depth, _) -> {
+                if (type == SEEN) {
+                    action.accept(url, depth);
+                }
+            });
+        } finally {
+            synchronized (this) {
+                --readers;
+            }
+        }
+    }
+
+    Set<String> downloaded() {
+        return downloaded;
+    }
+
+    Map<String, String> errors() {
+        return errors;
+    }
+
+    /**
+     * Maximal depth links of every downloaded URL were extracted with.
+     */
+    int extracted(final String url) {
+        return extracted.depth(url);
+    }
+
+    synchronized void seen(final String url, final int depth) {
+        append(SEEN, url, depth, null);
+    }
+
+    synchronized void downloaded(final String url) {
+        downloaded.add(url);
+        append(DOWNLOADED, url, 0, null);
+    }
+
+    synchronized void error(final String url, final IOException error) {
+        String message = String.valueOf(error.getMessage());
+        errors.put(url, message);
+        append(ERROR, url, 0, message);
+    }
+
+    synchronized void extracted(final String url, final int depth) {
+        extracted.visit(url, depth);
+        append(EXTRACTED, url, depth, null);
+    }
+
+    /**
+     * Throws the first error of writing the state, if any.
+     *
+     * @throws IOException if the state wasn't written completely.
+     */
+    synchronized void checkErrors() throws IOException {
+        if (Objects.nonNull(failure)) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for the running merge, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            log.close();
+            checkErrors();
+        }
+    }
+
+    private synchronized void flush() {
+        if (Objects.nonNull(failure)) {
+            return;
+        }
+
+        try {
+            log.flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void append(final byte type, final String url, final int depth, final String message) {
+        if (Objects.nonNull(failure)) {
+            return;
+        }
+
+        try {
+            write(log, type, url, depth, message);
+            if (++logRecords >= Math.max(MIN_LOG_RECORDS, snapshotRecords) && !merging && readers == 0) {
+                rotate();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Puts the log aside and starts its merge with the snapshot.
+     * Called under the lock of the store, that is not held by the merge.
+     */
+    private void rotate() throws IOException {
+        log.close();
+        Files.move(file(LOG), file(OLD_LOG), StandardCopyOption.ATOMIC_MOVE);
+        log = open();
+        logRecords = 0;
+
+        merging = true;
+        background.execute(() -> {
+            try {
+                long records = merge(List.of(file(SNAPSHOT), file(OLD_LOG)));
+                Files.delete(file(OLD_LOG));
+                synchronized (this) {
+                    snapshotRecords = records;
+                    merging = false;
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes a single record per URL and type of the files to the snapshot.
+     * <p>
+     * The files are read twice. The first pass counts fingerprints of records up to two, so in the second pass
+     * a record with a unique fingerprint is written at once, and only records with a repeated one
+     * are deduplicated by their URLs. So a collision of fingerprints never drops a record.
+     * </p>
+     *
+     * @return number of records in the snapshot.
+     */
+    private long merge(final List<Path> files) throws IOException {
+        VisitedSet seenDepths = new FingerprintVisitedSet();
+        VisitedSet extractedDepths = new FingerprintVisitedSet();
+        VisitedSet counts = new FingerprintVisitedSet();
+        for (Path file : files) {
+            read(file, (type, url, depth, _) -> {
+                String key = type + url;
+                if (counts.visit(key, 1) > 0) {
+                    counts.visit(key, 2);
+                }
+                switch (type) {
+                    case SEEN -> seenDepths.visit(url, depth);
+                    case EXTRACTED -> extractedDepths.visit(url, depth);
+                    default -> {
+                    }
+                }
+            });
+        }
+
+        Path tmp = file(SNAPSHOT + ".tmp");
+        Set<String> written = new HashSet<>();
+        long[] records = {0};
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            for (Path file : files) {
+                read(file, (type, url, depth, message) -> {
+                    String key = type + url;
+                    if (counts.depth(key) < 2 || written.add(key)) {
+                        int merged = switch (type) {
+                            case SEEN -> seenDepths.depth(url);
+                            case EXTRACTED -> extractedDepths.depth(url);
+                            default -> depth;
+                        };
+                        write(out, type, url, merged, message);
+                        ++records[0];
+                    }
+                });
+            }
+        }
+        Files.move(tmp, file(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records[0];
+    }
+
+    private Path file(final String name) {
+        return directory.resolve(name);
+    }
+
+    private DataOutputStream open() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                file(LOG), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+        ), BUFFER_SIZE));
+    }
+
+    private static void write(final DataOutputStream out, final byte type, final String url, final int depth, final String message) throws IOException {
+        out.writeByte(type);
+        writeString(out, url);
+        switch (type) {
+            case SEEN, EXTRACTED -> out.writeInt(depth);
+            case ERROR -> writeString(out, message);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Writes a string of any length, unlike {@link DataOutputStream#writeUTF}, that is limited to {@code 65535} bytes.
+     */
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in, final Path file) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupted crawl state in " + file);
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Applies records of the file, except seen URLs, to the state.
+     */
+    private void replay(final Path file) throws IOException {
+        read(file, (type, url, depth, message) -> {
+            switch (type) {
+                case DOWNLOADED -> downloaded.add(url);
+                case ERROR -> errors.put(url, message);
+                case EXTRACTED -> extracted.visit(url, depth);
+                default -> {
+                }
+            }
+        });
+    }
+
+    /**
+     * Passes records of the file up to its end or a record cut by a crash.
+     */
+    private static void read(final Path file, final RecordConsumer consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            while (true) {
+                byte type = in.readByte();
+                String url = readString(in, file);
+                switch (type) {
+                    case SEEN, EXTRACTED -> consumer.accept(type, url, in.readInt(), null);
+                    case DOWNLOADED -> consumer.accept(type, url, 0, null);
+                    case ERROR -> consumer.accept(type, url, 0, readString(in, file));
+                    default -> throw new IOException("Corrupted crawl state in " + file);
+                }
+            }
+        } catch (EOFException ignore) {
+            // End of the file or a record cut by a crash.
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordConsumer {
+        void accept(byte type, String url, int depth, String message) throws IOException;
+    }
+}
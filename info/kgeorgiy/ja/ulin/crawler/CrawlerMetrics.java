@@ -0,0 +1,39 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
+
+import java.util.Map;
+
+/**
+ * Snapshot of runtime metrics of {@link WebCrawler}.
+ * <p>
+ * Counters are summed over all crawls since the creation of the crawler. Times are in nanoseconds.
+ * </p>
+ *
+ * @param downloaded number of successful downloads. A page reached with a greater depth after its links
+ *                   were extracted is downloaded and counted again, but reported to the listener once.
+ * @param pagesPerSecond average number of pages downloaded per second.
+ * @param downloading number of downloads running now.
+ * @param extracting number of link extractions running now.
+ * @param hostQueue number of downloads waiting for a free slot or a token of their host.
+ * @param downloaderQueue number of downloads waiting for a downloader thread.
+ * @param extractorQueue number of extractions waiting for an extractor thread.
+ * @param hostWait time from scheduling a download to its start.
+ * @param downloadTime time of a download.
+ * @param hostLatency time of a download by up to {@code 1024} busiest hosts, the rest are merged into {@code "*"}.
+ * @param errors number of failed pages by simple name of the exception class.
+ */
+public record CrawlerMetrics(
+        long downloaded,
+        double pagesPerSecond,
+        long downloading,
+        long extracting,
+        long hostQueue,
+        long downloaderQueue,
+        long extractorQueue,
+        Histogram.Snapshot hostWait,
+        Histogram.Snapshot downloadTime,
+        Map<String, Histogram.Snapshot> hostLatency,
+        Map<String, Long> errors
+) {
+}
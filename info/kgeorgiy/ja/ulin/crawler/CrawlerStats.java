@@ -0,0 +1,149 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind {@link CrawlerMetrics}, updated by the crawler as it goes.
+ * <p>
+ * Latency is kept for at most {@code MAX_HOSTS} hosts, chosen by the Space-Saving algorithm:
+ * a new host replaces the one with the least weight and inherits it, and every download adds one.
+ * So a busy host gets in even if it appears late, and every host busier than {@code 1 / MAX_HOSTS}
+ * of downloads is kept. Latency of replaced hosts goes to {@code OTHER_HOSTS}.
+ * </p>
+ * <p>
+ * The host with the least weight is taken from a heap, ordered by weights of hosts when they were put there.
+ * Weights only grow, so if the weight of the top host has changed, it is put back with the new one.
+ * Every such step follows a recorded download, so a replacement takes amortized {@code O(log MAX_HOSTS)} time.
+ * </p>
+ */
+class CrawlerStats {
+    private final static int MAX_HOSTS = 1024;
+    private final static String OTHER_HOSTS = "*";
+
+    private final long startTime = System.nanoTime();
+    private final LongAdder downloaded = new LongAdder();
+    final AtomicLong downloading = new AtomicLong();
+    final AtomicLong extracting = new AtomicLong();
+    final AtomicLong hostQueue = new AtomicLong();
+    final AtomicLong downloaderQueue = new AtomicLong();
+    final AtomicLong extractorQueue = new AtomicLong();
+    private final Histogram hostWait = new Histogram();
+    private final Histogram downloadTime = new Histogram();
+    private final Map<String, HostLatency> hostLatency = new ConcurrentHashMap<>();
+    // Guarded by this.
+    private final PriorityQueue<Ranked> lightest = new PriorityQueue<>(Comparator.comparingLong(Ranked::weight));
+    private final Histogram otherHosts = new Histogram();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    void waited(final long nanos) {
+        hostWait.record(nanos);
+    }
+
+    void downloaded(final String host, final long nanos, final boolean success) {
+        if (success) {
+            downloaded.increment();
+        }
+
+        downloadTime.record(nanos);
+        HostLatency latency = hostLatency.get(host);
+        if (Objects.nonNull(latency)) {
+            latency.record(nanos);
+        } else {
+            admit(host, nanos);
+        }
+    }
+
+    /**
+     * Adds a host with its first value, replacing the host with the least weight if there are too many.
+     * Only new hosts take the lock, and a value recorded to a replaced host concurrently may be lost.
+     */
+    private synchronized void admit(final String host, final long nanos) {
+        HostLatency latency = hostLatency.get(host);
+        if (Objects.nonNull(latency)) {
+            latency.record(nanos);
+            return;
+        }
+
+        long weight = 0;
+        if (hostLatency.size() >= MAX_HOSTS) {
+            Ranked replaced = pollLightest();
+            hostLatency.remove(replaced.host());
+            otherHosts.add(replaced.latency().histogram());
+            weight = replaced.latency().weight().get();
+        }
+
+        latency = new HostLatency(new Histogram(), new AtomicLong(weight));
+        // Recorded before the host is visible, so the value is not lost if the host is replaced at once.
+        latency.record(nanos);
+        hostLatency.put(host, latency);
+        lightest.add(new Ranked(host, latency, latency.weight().get()));
+    }
+
+    private Ranked pollLightest() {
+        while (true) {
+            Ranked top = lightest.remove();
+            long weight = top.latency().weight().get();
+            if (weight == top.weight()) {
+                return top;
+            }
+            lightest.add(new Ranked(top.host(), top.latency(), weight));
+        }
+    }
+
+    void failed(final Exception error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), _ -> new LongAdder()).increment();
+    }
+
+    CrawlerMetrics snapshot() {
+        long elapsed = Math.max(System.nanoTime() - startTime, 1);
+        long pages = downloaded.sum();
+
+        Map<String, Histogram.Snapshot> latency = new TreeMap<>();
+        hostLatency.forEach((host, entry) -> latency.put(host, entry.histogram().snapshot()));
+        Histogram.Snapshot other = otherHosts.snapshot();
+        if (other.count() > 0) {
+            latency.put(OTHER_HOSTS, other);
+        }
+        Map<String, Long> errorCounts = new TreeMap<>();
+        errors.forEach((type, count) -> errorCounts.put(type, count.sum()));
+
+        return new CrawlerMetrics(
+                pages,
+                pages * 1e9 / elapsed,
+                downloading.get(),
+                extracting.get(),
+                hostQueue.get(),
+                downloaderQueue.get(),
+                extractorQueue.get(),
+                hostWait.snapshot(),
+                downloadTime.snapshot(),
+                latency,
+                errorCounts
+        );
+    }
+
+    /**
+     * Host in the heap, with its weight when it was put there.
+     */
+    private record Ranked(String host, HostLatency latency, long weight) {
+    }
+
+    /**
+     * Latency of a host and its weight, that is at least the number of its downloads.
+     */
+    private record HostLatency(Histogram histogram, AtomicLong weight) {
+        void record(final long nanos) {
+            weight.incrementAndGet();
+            histogram.record(nanos);
+        }
+    }
+}
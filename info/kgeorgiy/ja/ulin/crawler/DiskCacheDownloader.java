@@ -0,0 +1,224 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Downloader, that keeps links of downloaded pages in a bounded on-disk cache.
+ * <p>
+ * A page is cached when it is downloaded, and its links are added to the entry when they are extracted,
+ * so a cached page is neither downloaded nor parsed again.
+ * Links of a page that was cached without them are downloaded only when they are extracted,
+ * which happens outside of the caller's limits of downloads per host.
+ * Entries older than {@code maxAge} are revalidated, if the underlying downloader is a {@link ConditionalDownloader},
+ * or downloaded again otherwise. When the cache grows over {@code maxBytes}, least recently used entries are evicted.
+ * The order of use is kept in modification times of the files, so it survives a restart.
+ * </p>
+ */
+public class DiskCacheDownloader implements Downloader {
+    private final static String SUFFIX = ".entry";
+    private final static String TMP_SUFFIX = ".tmp";
+
+    private final Downloader downloader;
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxAge;
+    // File name to size, in order of use.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * Creates a cache in a directory, reusing entries that are already there.
+     *
+     * @param downloader underlying downloader.
+     * @param directory directory of the cache, created if needed.
+     * @param maxBytes maximal total size of entries.
+     * @param maxAge age of an entry, after which it is revalidated.
+     * @throws IOException if the directory can't be read.
+     */
+    public DiskCacheDownloader(final Downloader downloader, final Path directory, final long maxBytes, final Duration maxAge) throws IOException {
+        this.downloader = downloader;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge.toMillis();
+        Files.createDirectories(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> entries = new ArrayList<>();
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    entries.add(file);
+                } else if (name.endsWith(TMP_SUFFIX)) {
+                    // Left by a crash in the middle of a write.
+                    Files.deleteIfExists(file);
+                }
+            }
+            entries.sort(Comparator.comparing(DiskCacheDownloader::lastUsed));
+            for (Path file : entries) {
+                long size = Files.size(file);
+                index.put(file.getFileName().toString(), size);
+                bytes += size;
+            }
+        }
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    @Override
+    public Document download(final String url) throws IOException {
+        Entry entry = read(url);
+        if (Objects.nonNull(entry)) {
+            if (System.currentTimeMillis() - entry.saved() <= maxAge) {
+                return cached(entry);
+            }
+
+            if (downloader instanceof ConditionalDownloader conditional && Objects.nonNull(entry.validator())) {
+                Document document = conditional.downloadIfModified(url, entry.validator());
+                if (Objects.isNull(document)) {
+                    Entry fresh = new Entry(url, System.currentTimeMillis(), entry.validator(), entry.links());
+                    write(fresh);
+                    return cached(fresh);
+                }
+                return caching(url, document);
+            }
+        }
+
+        return caching(url, downloader.download(url));
+    }
+
+    /**
+     * Document of a cached page, that downloads the page only if its links are not cached.
+     */
+    private Document cached(final Entry entry) {
+        if (Objects.nonNull(entry.links())) {
+            return entry::links;
+        }
+        return () -> caching(entry.url(), downloader.download(entry.url())).extractLinks();
+    }
+
+    /**
+     * Caches a downloaded page and returns a document, that adds its links to the cache when they are extracted.
+     */
+    private Document caching(final String url, final Document document) {
+        String validator = downloader instanceof ConditionalDownloader conditional ? conditional.validator(document) : null;
+        save(new Entry(url, System.currentTimeMillis(), validator, null));
+        return () -> {
+            List<String> links = document.extractLinks();
+            save(new Entry(url, System.currentTimeMillis(), validator, links));
+            return links;
+        };
+    }
+
+    private void save(final Entry entry) {
+        try {
+            write(entry);
+        } catch (IOException ignore) {
+            // The cache is best-effort, the page will be downloaded next time.
+        }
+    }
+
+    /**
+     * Cached page, {@code links} are {@code null} until they are extracted.
+     */
+    private record Entry(String url, long saved, String validator, List<String> links) {
+    }
+
+    private Entry read(final String url) {
+        String name = name(url);
+        synchronized (this) {
+            if (Objects.isNull(index.get(name))) {
+                return null;
+            }
+        }
+
+        Path file = directory.resolve(name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!in.readUTF().equals(url)) {
+                // Fingerprints collided, the entry is of another URL.
+                return null;
+            }
+
+            long saved = in.readLong();
+            String validator = in.readBoolean() ? in.readUTF() : null;
+            int count = in.readInt();
+            List<String> links = count < 0 ? null : new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                links.add(in.readUTF());
+            }
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Entry(url, saved, validator, links);
+        } catch (IOException e) {
+            // Evicted meanwhile, or cut by a crash.
+            return null;
+        }
+    }
+
+    private void write(final Entry entry) throws IOException {
+        String name = name(entry.url());
+        Path tmp = Files.createTempFile(directory, name, TMP_SUFFIX);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeUTF(entry.url());
+                out.writeLong(entry.saved());
+                out.writeBoolean(Objects.nonNull(entry.validator()));
+                if (Objects.nonNull(entry.validator())) {
+                    out.writeUTF(entry.validator());
+                }
+                if (Objects.isNull(entry.links())) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(entry.links().size());
+                    for (String link : entry.links()) {
+                        out.writeUTF(link);
+                    }
+                }
+            }
+
+            long size = Files.size(tmp);
+            synchronized (this) {
+                Files.move(tmp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long old = index.put(name, size);
+                bytes += size - (Objects.isNull(old) ? 0 : old);
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException ignore) {
+                // Deleted on the next start, if still over the limit.
+            }
+            bytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static String name(final String url) {
+        return String.format("%016x", FingerprintVisitedSet.fingerprint(url)) + SUFFIX;
+    }
+
+    private static FileTime lastUsed(final Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
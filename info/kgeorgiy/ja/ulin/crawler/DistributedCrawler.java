@@ -0,0 +1,208 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.AdvancedCrawler;
+import info.kgeorgiy.java.advanced.crawler.Result;
+import info.kgeorgiy.java.advanced.crawler.URLUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Coordinator of a crawl distributed over {@link CrawlNode}s.
+ * <p>
+ * Hosts are split between nodes by consistent hashing of their names, so every node downloads its own hosts
+ * with its own per-host limits. The coordinator only sends the start URL to its owner and waits
+ * for the crawl to end, then merges results of the nodes.
+ * </p>
+ * <p>
+ * If the crawl fails or is interrupted, it is cancelled on every node instead, without waiting for their work.
+ * </p>
+ * <p>
+ * The crawl ends when two successive polls of all nodes find every node idle, the same numbers of batches
+ * sent and received by every node, and as many batches sent as received. Otherwise a batch could be
+ * in flight between two nodes, or a node could become busy after it was polled.
+ * </p>
+ */
+public class DistributedCrawler implements AdvancedCrawler {
+    private final static long POLL_MILLIS = 20;
+
+    private final List<String> names;
+    private final List<CrawlNode> nodes;
+    private final HostRing ring;
+
+    /**
+     * Crawl with nodes bound to the registry on local host.
+     *
+     * @param args "url depth port name [name ...]"
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length < 4) {
+            System.err.println("Not enough argument: expected \"url depth port name [name ...]\"");
+            return;
+        }
+
+        String url = args[0];
+        int depth = Integer.parseInt(args[1]);
+        int port = Integer.parseInt(args[2]);
+        List<String> names = Arrays.asList(args).subList(3, args.length);
+
+        try (DistributedCrawler crawler = connect(LocateRegistry.getRegistry(port), names)) {
+            Result result = crawler.download(url, depth);
+            System.out.println("Downloaded " + result.getDownloaded().size() + " pages, "
+                    + result.getErrors().size() + " errors");
+        } catch (RemoteException | NotBoundException | UncheckedIOException e) {
+            System.err.println("Error in cluster: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a coordinator of nodes bound to a registry under their names.
+     *
+     * @param registry registry of nodes.
+     * @param names names of nodes.
+     * @return coordinator.
+     * @throws RemoteException if the registry is unreachable.
+     * @throws NotBoundException if a node is not bound.
+     */
+    public static DistributedCrawler connect(final Registry registry, final List<String> names)
+            throws RemoteException, NotBoundException {
+        List<CrawlNode> nodes = new ArrayList<>();
+        for (String name : names) {
+            nodes.add((CrawlNode) registry.lookup(name));
+        }
+        return new DistributedCrawler(names, nodes);
+    }
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param names distinct names of nodes, that place them on the ring of hosts.
+     * @param nodes nodes in the same order.
+     */
+    public DistributedCrawler(final List<String> names, final List<CrawlNode> nodes) {
+        if (names.size() != nodes.size() || Set.copyOf(names).size() != names.size()) {
+            throw new IllegalArgumentException("Every node must have a distinct name");
+        }
+
+        this.names = List.copyOf(names);
+        this.nodes = List.copyOf(nodes);
+        this.ring = new HostRing(this.names);
+    }
+
+    @Override
+    public Result download(final String url, final int depth, final List<String> excludes) {
+        return crawl(url, depth, excludes, false);
+    }
+
+    @Override
+    public Result advancedDownload(final String url, final int depth, final List<String> hosts) {
+        return crawl(url, depth, hosts, true);
+    }
+
+    /**
+     * Nodes are not owned by the coordinator, so there is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+
+    private Result crawl(final String url, final int depth, final List<String> hosts, final boolean exact) {
+        long crawl = ThreadLocalRandom.current().nextLong();
+        CrawlNode.Assignment assignment = new CrawlNode.Assignment(crawl, names, nodes, List.copyOf(hosts), exact);
+
+        try {
+            for (CrawlNode node : nodes) {
+                node.start(assignment);
+            }
+            int seeds = 0;
+            if (depth > 0) {
+                nodes.get(owner(url)).accept(crawl, List.of(new CrawlNode.Link(url, depth)));
+                ++seeds;
+            }
+            awaitIdle(crawl, seeds);
+
+            List<CrawlNode.Part> parts = new ArrayList<>();
+            for (CrawlNode node : nodes) {
+                parts.add(node.finish(crawl));
+            }
+            return merge(parts);
+        } catch (RemoteException e) {
+            cancel(crawl);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            cancel(crawl);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return cancel(crawl);
+        }
+    }
+
+    /**
+     * Aborts a crawl on every node, that is reachable, and merges what they have done.
+     */
+    private Result cancel(final long crawl) {
+        List<CrawlNode.Part> parts = new ArrayList<>();
+        for (CrawlNode node : nodes) {
+            try {
+                parts.add(node.cancel(crawl));
+            } catch (RemoteException | RuntimeException ignore) {
+                // The node is gone or has already ended the crawl.
+            }
+        }
+        return merge(parts);
+    }
+
+    private static Result merge(final List<CrawlNode.Part> parts) {
+        List<String> downloaded = new ArrayList<>();
+        Map<String, IOException> errors = new HashMap<>();
+        for (CrawlNode.Part part : parts) {
+            downloaded.addAll(part.downloaded());
+            errors.putAll(part.errors());
+        }
+        return new Result(downloaded, errors);
+    }
+
+    /**
+     * Malformed URL is sent to any node, that reports it as an error.
+     */
+    private int owner(final String url) {
+        try {
+            return ring.owner(URLUtils.getHost(url));
+        } catch (MalformedURLException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Waits for the end of a crawl.
+     *
+     * @param seeds number of batches sent by the coordinator, that are received, but not sent by nodes.
+     */
+    private void awaitIdle(final long crawl, final int seeds) throws RemoteException, InterruptedException {
+        List<CrawlNode.Status> previous = List.of();
+        while (true) {
+            Thread.sleep(POLL_MILLIS);
+
+            List<CrawlNode.Status> statuses = new ArrayList<>();
+            for (CrawlNode node : nodes) {
+                statuses.add(node.status(crawl));
+            }
+
+            boolean idle = statuses.stream().allMatch(CrawlNode.Status::idle);
+            long sent = statuses.stream().mapToLong(CrawlNode.Status::sent).sum();
+            long received = statuses.stream().mapToLong(CrawlNode.Status::received).sum();
+            if (idle && sent + seeds == received && statuses.equals(previous)) {
+                return;
+            }
+            previous = statuses;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a page downloaded by {@link WebCrawler}.
+ */
+@Name("info.kgeorgiy.ja.ulin.crawler.Download")
+@Label("Page Download")
+@Category({"Web Crawler"})
+@Description("Download of a single page")
+class DownloadEvent extends Event {
+    @Label("URL")
+    String url;
+
+    @Label("Host Wait")
+    @Description("Time from scheduling the download to its start")
+    @Timespan(Timespan.NANOSECONDS)
+    long hostWait;
+
+    @Label("Error")
+    String error;
+}
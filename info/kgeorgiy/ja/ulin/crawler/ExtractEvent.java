@@ -0,0 +1,18 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for links extracted by {@link WebCrawler}.
+ */
+@Name("info.kgeorgiy.ja.ulin.crawler.Extract")
+@Label("Link Extraction")
+@Category({"Web Crawler"})
+@Description("Extraction of links of a single page")
+class ExtractEvent extends Event {
+    @Label("URL")
+    String url;
+
+    @Label("Links")
+    int links;
+}
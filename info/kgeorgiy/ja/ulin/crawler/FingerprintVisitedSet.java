@@ -0,0 +1,116 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+/**
+ * Compact visited set, that keeps 64-bit fingerprints of URLs instead of URLs.
+ * <p>
+ * Fingerprints are kept in open-addressing tables of primitives, split into segments with their own locks.
+ * A URL takes 16 to 32 bytes instead of a hundred or more for a string in a hash map.
+ * Two URLs are mixed up only if their fingerprints collide, which for {@code n} URLs
+ * happens with probability about {@code n^2 / 2^65}.
+ * </p>
+ */
+public class FingerprintVisitedSet implements VisitedSet {
+    private final static int SEGMENTS = 64;
+    private final static int INITIAL_CAPACITY = 1 << 10;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public FingerprintVisitedSet() {
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public int visit(final String url, final int depth) {
+        long key = fingerprint(url);
+        return segment(key).visit(key, depth);
+    }
+
+    @Override
+    public int depth(final String url) {
+        long key = fingerprint(url);
+        return segment(key).depth(key);
+    }
+
+    private Segment segment(final long key) {
+        return segments[(int) (key >>> 58) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the URL, mixed with the finalizer of MurmurHash3. Never zero.
+     */
+    static long fingerprint(final String url) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < url.length(); ++i) {
+            hash = (hash ^ url.charAt(i)) * 0x100000001B3L;
+        }
+
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Linear probing table of fingerprints, zero marks an empty slot. Kept at most three quarters full.
+     */
+    private static class Segment {
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int[] depths = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        synchronized int visit(final long key, final int depth) {
+            int slot = find(keys, key);
+            int previous = depths[slot];
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                if (++size * 4 > keys.length * 3) {
+                    grow();
+                    slot = find(keys, key);
+                }
+            }
+
+            depths[slot] = Math.max(previous, depth);
+            return previous;
+        }
+
+        synchronized int depth(final long key) {
+            return depths[find(keys, key)];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldDepths = depths;
+            keys = new long[oldKeys.length * 2];
+            depths = new int[oldKeys.length * 2];
+
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldKeys[i] != 0) {
+                    int slot = find(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    depths[slot] = oldDepths[i];
+                }
+            }
+        }
+
+        /**
+         * Slot of the key, or the empty slot it should be put to.
+         */
+        private static int find(final long[] keys, final long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * URLs waiting to be downloaded. Decides how many URLs are in flight and which one starts next.
+ */
+interface Frontier extends Closeable {
+    /**
+     * Adds a URL to the frontier.
+     *
+     * @param url discovered URL.
+     * @param depth remaining depth of the URL.
+     * @return {@code true} if the URL should be started right now.
+     */
+    boolean offer(String url, int depth);
+
+    /**
+     * Marks a URL in flight as completed.
+     *
+     * @return next URL to start instead of the completed one, or {@code null} if the frontier is empty.
+     */
+    String complete();
+
+    /**
+     * Notes one more link to a URL, that is already offered.
+     *
+     * @param url linked URL.
+     * @param depth remaining depth the URL is reached with.
+     */
+    default void linked(final String url, final int depth) {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
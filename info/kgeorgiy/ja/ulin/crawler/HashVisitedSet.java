@@ -0,0 +1,27 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exact visited set, that keeps full URLs in a hash map.
+ */
+public class HashVisitedSet implements VisitedSet {
+    private final Map<String, Integer> depths = new ConcurrentHashMap<>();
+
+    @Override
+    public int visit(final String url, final int depth) {
+        int[] previous = new int[1];
+        depths.compute(url, (_, old) -> {
+            previous[0] = Objects.isNull(old) ? 0 : old;
+            return Math.max(previous[0], depth);
+        });
+        return previous[0];
+    }
+
+    @Override
+    public int depth(final String url) {
+        return depths.getOrDefault(url, 0);
+    }
+}
@@ -0,0 +1,182 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Precompiled check of hosts, that a crawl should skip.
+ * <p>
+ * Hosts that contain any of the excluded substrings are checked by an Aho–Corasick automaton
+ * in time linear in the length of the host, however many substrings there are.
+ * Results of the automaton are memoized, as every host is checked once per link to it.
+ * Exact hosts are checked by a hash set, that is as fast as the memo itself.
+ * </p>
+ */
+class HostFilter implements Predicate<String> {
+    private final static int MEMO_LIMIT = 1 << 16;
+
+    private final Predicate<String> matcher;
+    // Null for matchers that are not slower than the memo.
+    private final Map<String, Boolean> memo;
+
+    private HostFilter(final Predicate<String> matcher, final boolean memoized) {
+        this.matcher = matcher;
+        this.memo = memoized ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Creates a filter of hosts that contain any of the substrings.
+     *
+     * @param substrings excluded substrings.
+     * @return compiled filter.
+     */
+    static HostFilter containing(final Collection<String> substrings) {
+        if (substrings.isEmpty()) {
+            return new HostFilter(_ -> false, false);
+        }
+        return new HostFilter(new Automaton(substrings)::matches, true);
+    }
+
+    /**
+     * Creates a filter of hosts equal to any of the given ones.
+     *
+     * @param hosts filtered hosts.
+     * @return compiled filter.
+     */
+    static HostFilter equalTo(final Collection<String> hosts) {
+        return new HostFilter(Set.copyOf(hosts)::contains, false);
+    }
+
+    /**
+     * Checks whether the host should be skipped.
+     *
+     * @param host host of a URL.
+     * @return {@code true} if the host is filtered.
+     */
+    @Override
+    public boolean test(final String host) {
+        if (Objects.isNull(memo)) {
+            return matcher.test(host);
+        }
+
+        Boolean known = memo.get(host);
+        if (Objects.nonNull(known)) {
+            return known;
+        }
+
+        boolean result = matcher.test(host);
+        if (memo.size() >= MEMO_LIMIT) {
+            // Hosts of a crawl are mostly the same, so a rare reset costs less than an LRU.
+            memo.clear();
+        }
+        memo.put(host, result);
+        return result;
+    }
+
+    /**
+     * Aho–Corasick automaton, stored in flat arrays.
+     * Children of a node are sorted by label and kept in {@code labels} and {@code targets}
+     * between {@code first[node]} and {@code first[node + 1]}.
+     */
+    private static class Automaton {
+        private final int[] first;
+        private final char[] labels;
+        private final int[] targets;
+        private final int[] fail;
+        private final boolean[] terminal;
+
+        Automaton(final Collection<String> patterns) {
+            List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+            List<Boolean> ends = new ArrayList<>();
+            trie.add(new TreeMap<>());
+            ends.add(false);
+
+            for (String pattern : patterns) {
+                int node = 0;
+                for (int i = 0; i < pattern.length(); ++i) {
+                    Integer next = trie.get(node).get(pattern.charAt(i));
+                    if (Objects.isNull(next)) {
+                        next = trie.size();
+                        trie.get(node).put(pattern.charAt(i), next);
+                        trie.add(new TreeMap<>());
+                        ends.add(false);
+                    }
+                    node = next;
+                }
+                ends.set(node, true);
+            }
+
+            int nodes = trie.size();
+            first = new int[nodes + 1];
+            labels = new char[nodes - 1];
+            targets = new int[nodes - 1];
+            fail = new int[nodes];
+            terminal = new boolean[nodes];
+
+            int edge = 0;
+            for (int node = 0; node < nodes; ++node) {
+                first[node] = edge;
+                terminal[node] = ends.get(node);
+                for (Map.Entry<Character, Integer> child : trie.get(node).entrySet()) {
+                    labels[edge] = child.getKey();
+                    targets[edge] = child.getValue();
+                    ++edge;
+                }
+            }
+            first[nodes] = edge;
+
+            // Breadth-first, so failure links of shorter prefixes are known.
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int e = first[0]; e < first[1]; ++e) {
+                queue.add(targets[e]);
+            }
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                terminal[node] |= terminal[fail[node]];
+                for (int e = first[node]; e < first[node + 1]; ++e) {
+                    int child = targets[e];
+                    fail[child] = next(fail[node], labels[e]);
+                    queue.add(child);
+                }
+            }
+        }
+
+        /**
+         * Transition of the automaton, following failure links if needed.
+         */
+        private int next(int node, final char c) {
+            while (true) {
+                int child = child(node, c);
+                if (child >= 0) {
+                    return child;
+                }
+                if (node == 0) {
+                    return 0;
+                }
+                node = fail[node];
+            }
+        }
+
+        private int child(final int node, final char c) {
+            int e = Arrays.binarySearch(labels, first[node], first[node + 1], c);
+            return e >= 0 ? targets[e] : -1;
+        }
+
+        boolean matches(final String text) {
+            // The empty pattern is contained in every text.
+            if (terminal[0]) {
+                return true;
+            }
+
+            int node = 0;
+            for (int i = 0; i < text.length(); ++i) {
+                node = next(node, text.charAt(i));
+                if (terminal[node]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
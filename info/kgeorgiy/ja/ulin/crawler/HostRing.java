@@ -0,0 +1,69 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of hosts over nodes of a distributed crawl.
+ * <p>
+ * Every node has {@code REPLICAS} points on a ring of 64-bit hashes, placed by its name.
+ * A host belongs to the node of the first point at or after the hash of the host.
+ * Adding or removing a node moves only the hosts of its own points, and every node
+ * computes the same owners from the same names.
+ * </p>
+ */
+class HostRing {
+    private final static int REPLICAS = 128;
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Creates a ring.
+     *
+     * @param names distinct names of nodes.
+     */
+    HostRing(final List<String> names) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("Ring must have nodes");
+        }
+
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int node = 0; node < names.size(); ++node) {
+            for (int replica = 0; replica < REPLICAS; ++replica) {
+                ring.put(FingerprintVisitedSet.fingerprint(names.get(node) + "#" + replica), node);
+            }
+        }
+
+        points = new long[ring.size()];
+        owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            ++i;
+        }
+    }
+
+    /**
+     * Returns the node that crawls a host.
+     *
+     * @param host host name.
+     * @return index of the node in the list of names.
+     */
+    int owner(final String host) {
+        long hash = FingerprintVisitedSet.fingerprint(host);
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+}
@@ -0,0 +1,267 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
+
+/**
+ * Politeness of downloads: limits concurrency and request rate of every host.
+ * <p>
+ * Every host has a queue of pending downloads, a token bucket of requests and a concurrency limit.
+ * The limit is {@code perHost}, or, if it is adaptive, is raised by one per round of successful downloads
+ * and halved when the host slows down or fails (AIMD). Downloads wait in the queue, not in threads:
+ * a download is submitted to the downloaders only when its host has a free slot and a token.
+ * </p>
+ * <p>
+ * A host that has no downloads is forgotten at once if it has no state worth keeping,
+ * or after {@code IDLE_TIMEOUT} otherwise, so memory is bounded by the number of recently used hosts.
+ * </p>
+ */
+class HostScheduler {
+    private final static long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private final static double SMOOTHING = 1.0 / 8;
+    private final static double SLOWDOWN = 2;
+    private final static double ERROR_RATE = 0.2;
+
+    private final ExecutorService downloaders;
+    private final int perHost;
+    private final CrawlerStats stats;
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("host-timer").factory()
+    );
+    private volatile double rate = Double.POSITIVE_INFINITY;
+    private volatile int burst = 1;
+    private volatile boolean adaptive = false;
+
+    HostScheduler(final ExecutorService downloaders, final int perHost, final CrawlerStats stats) {
+        this.downloaders = downloaders;
+        this.perHost = perHost;
+        this.stats = stats;
+        timer.scheduleWithFixedDelay(this::evict, IDLE_TIMEOUT, IDLE_TIMEOUT, TimeUnit.NANOSECONDS);
+    }
+
+    void setRateLimit(final double rate, final int burst) {
+        if (rate <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+
+        this.rate = rate;
+        this.burst = burst;
+    }
+
+    void setAdaptive(final boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Runs download task when its host allows it.
+     *
+     * @param task download, that takes nanoseconds it waited for and returns {@code false} if it failed.
+     * @param onReject called instead of the task, if the downloaders are shut down or the task is skipped.
+     * @param skipped checked before the task starts, the task is dropped without taking a slot if it is set.
+     */
+    void schedule(final String host, final LongPredicate task, final Runnable onReject, final BooleanSupplier skipped) {
+        hosts.compute(host, (_, queue) -> {
+            HostQueue q = Objects.isNull(queue) ? new HostQueue() : queue;
+            q.pending.add(new HostTask(task, onReject, skipped, System.nanoTime()));
+            stats.hostQueue.incrementAndGet();
+            drain(host, q);
+            return q.keep() ? q : null;
+        });
+    }
+
+    void close() {
+        timer.shutdownNow();
+    }
+
+    private void finished(final String host, final long nanos, final boolean success) {
+        hosts.computeIfPresent(host, (_, q) -> {
+            --q.active;
+            q.record(nanos, success);
+            drain(host, q);
+            return q.keep() ? q : null;
+        });
+    }
+
+    private void wakeUp(final String host) {
+        hosts.computeIfPresent(host, (_, q) -> {
+            q.waiting = false;
+            drain(host, q);
+            return q.keep() ? q : null;
+        });
+    }
+
+    /**
+     * Starts pending downloads of a host while it has free slots and tokens.
+     * If it runs out of tokens, wakes up when the next one arrives.
+     */
+    private void drain(final String host, final HostQueue q) {
+        while (!q.pending.isEmpty() && q.active < q.limit()) {
+            if (q.pending.peek().skipped().getAsBoolean()) {
+                stats.hostQueue.decrementAndGet();
+                q.pending.poll().onReject().run();
+                continue;
+            }
+
+            long delay = q.acquire();
+            if (delay > 0) {
+                if (!q.waiting) {
+                    q.waiting = true;
+                    try {
+                        timer.schedule(() -> wakeUp(host), delay, TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException e) {
+                        q.waiting = false;
+                        reject(q);
+                    }
+                }
+                return;
+            }
+
+            stats.hostQueue.decrementAndGet();
+            if (start(host, q.pending.poll())) {
+                ++q.active;
+            }
+        }
+    }
+
+    private void reject(final HostQueue q) {
+        HostTask task;
+        while (Objects.nonNull(task = q.pending.poll())) {
+            stats.hostQueue.decrementAndGet();
+            task.onReject().run();
+        }
+    }
+
+    private boolean start(final String host, final HostTask task) {
+        stats.downloaderQueue.incrementAndGet();
+        try {
+            downloaders.submit(() -> {
+                stats.downloaderQueue.decrementAndGet();
+                stats.downloading.incrementAndGet();
+                long start = System.nanoTime();
+                stats.waited(start - task.queued());
+
+                boolean success = false;
+                try {
+                    success = task.task().test(start - task.queued());
+                } finally {
+                    long time = System.nanoTime() - start;
+                    stats.downloading.decrementAndGet();
+                    stats.downloaded(host, time, success);
+                    finished(host, time, success);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            stats.downloaderQueue.decrementAndGet();
+            task.onReject().run();
+            return false;
+        }
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        for (String host : hosts.keySet()) {
+            hosts.computeIfPresent(host, (_, q) -> q.isIdle() && now - q.idleSince > IDLE_TIMEOUT ? null : q);
+        }
+    }
+
+    private record HostTask(LongPredicate task, Runnable onReject, BooleanSupplier skipped, long queued) {
+    }
+
+    /**
+     * State of a single host. Accessed only inside {@code compute} of its entry.
+     */
+    private class HostQueue {
+        private final Queue<HostTask> pending = new ArrayDeque<>();
+        private int active = 0;
+        private boolean waiting = false;
+        private long idleSince = System.nanoTime();
+
+        private double tokens = burst;
+        private long refilled = System.nanoTime();
+
+        private double window = adaptive ? 1 : perHost;
+        private double latency = 0;
+        private double minLatency = Double.POSITIVE_INFINITY;
+        private double errors = 0;
+        private long decreased = 0;
+
+        int limit() {
+            return (int) Math.min(perHost, window);
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return {@code 0} if a token is taken, or nanoseconds to wait for the next one.
+         */
+        long acquire() {
+            if (Double.isInfinite(rate)) {
+                return 0;
+            }
+
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) * rate / 1e9);
+            refilled = now;
+            if (tokens >= 1) {
+                --tokens;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / rate * 1e9));
+        }
+
+        /**
+         * Adjusts the concurrency limit by the result of a download.
+         * A slowdown is a smoothed latency more than {@code SLOWDOWN} times the minimal one.
+         * The limit is halved at most once per smoothed latency, so a burst of bad results counts once.
+         */
+        void record(final long nanos, final boolean success) {
+            if (!adaptive) {
+                return;
+            }
+
+            errors += ((success ? 0 : 1) - errors) * SMOOTHING;
+            if (success) {
+                latency = latency == 0 ? nanos : latency + (nanos - latency) * SMOOTHING;
+                minLatency = Math.min(minLatency, nanos);
+            }
+
+            long now = System.nanoTime();
+            if (errors > ERROR_RATE || latency > SLOWDOWN * minLatency) {
+                if (now - decreased > latency) {
+                    window = Math.max(1, window / 2);
+                    decreased = now;
+                }
+            } else if (window < perHost) {
+                window += 1 / window;
+            }
+        }
+
+        boolean isIdle() {
+            return active == 0 && pending.isEmpty() && !waiting;
+        }
+
+        /**
+         * Whether the host should be remembered. Marks the time it became idle.
+         */
+        boolean keep() {
+            if (!isIdle()) {
+                return true;
+            }
+
+            idleSince = System.nanoTime();
+            return adaptive || !Double.isInfinite(rate);
+        }
+    }
+}
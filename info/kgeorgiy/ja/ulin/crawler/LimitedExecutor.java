@@ -0,0 +1,107 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor that runs at most {@code limit} tasks of the underlying executor at the same time.
+ * <p>
+ * Extra tasks wait in a queue, not in threads, so submitting never blocks and waiting tasks
+ * take no threads. Used on top of a virtual-thread-per-task executor, where the number
+ * of threads does not bound the concurrency.
+ * </p>
+ */
+class LimitedExecutor extends AbstractExecutorService {
+    private final ExecutorService executor;
+    private final int limit;
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+    private int active = 0;
+    private boolean isShutdown = false;
+
+    LimitedExecutor(final ExecutorService executor, final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be more than 0");
+        }
+
+        this.executor = executor;
+        this.limit = limit;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        if (isShutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+
+        if (active < limit) {
+            ++active;
+            start(task);
+        } else {
+            pending.add(task);
+        }
+    }
+
+    private void start(final Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                finished();
+            }
+        });
+    }
+
+    private synchronized void finished() {
+        Runnable next = pending.poll();
+        if (next != null) {
+            start(next);
+            return;
+        }
+
+        --active;
+        if (isShutdown && active == 0) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting tasks. The underlying executor is shut down after queued tasks are started.
+     */
+    @Override
+    public synchronized void shutdown() {
+        isShutdown = true;
+        if (active == 0) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        isShutdown = true;
+        List<Runnable> notStarted = new ArrayList<>(executor.shutdownNow());
+        notStarted.addAll(pending);
+        pending.clear();
+        return notStarted;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return isShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
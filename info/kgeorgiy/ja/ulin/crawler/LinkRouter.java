@@ -0,0 +1,16 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+/**
+ * Sends links, that belong to other nodes of a distributed crawl, to their owners.
+ */
+@FunctionalInterface
+interface LinkRouter {
+    /**
+     * Forwards a link to its owner, if it is not owned by this node.
+     *
+     * @param url discovered URL.
+     * @param depth remaining depth of the URL.
+     * @return {@code true} if the link is forwarded and must not be crawled here.
+     */
+    boolean forward(String url, int depth);
+}
@@ -0,0 +1,125 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * HTTP endpoint with metrics of a crawler in the Prometheus text format.
+ * <p>
+ * Durations are histograms with power-of-two buckets from {@code 2^MIN_BUCKET} to {@code 2^MAX_BUCKET} nanoseconds,
+ * that is from about a microsecond to about a minute, and their maximum is a separate gauge.
+ * </p>
+ */
+class MetricsEndpoint {
+    private final static String PATH = "/metrics";
+    private final static String PREFIX = "crawler_";
+    private final static int MIN_BUCKET = 10;
+    private final static int MAX_BUCKET = 36;
+
+    private MetricsEndpoint() {
+    }
+
+    static HttpServer start(final InetSocketAddress address, final Supplier<CrawlerMetrics> metrics) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext(PATH, exchange -> respond(exchange, format(metrics.get())));
+        server.start();
+        return server;
+    }
+
+    private static void respond(final HttpExchange exchange, final String body) throws IOException {
+        try (exchange) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    static String format(final CrawlerMetrics metrics) {
+        StringBuilder out = new StringBuilder();
+        type(out, "downloaded_total", "counter");
+        sample(out, "downloaded_total", "", metrics.downloaded());
+        type(out, "pages_per_second", "gauge");
+        sample(out, "pages_per_second", "", metrics.pagesPerSecond());
+        type(out, "downloading", "gauge");
+        sample(out, "downloading", "", metrics.downloading());
+        type(out, "extracting", "gauge");
+        sample(out, "extracting", "", metrics.extracting());
+        type(out, "host_queue", "gauge");
+        sample(out, "host_queue", "", metrics.hostQueue());
+        type(out, "downloader_queue", "gauge");
+        sample(out, "downloader_queue", "", metrics.downloaderQueue());
+        type(out, "extractor_queue", "gauge");
+        sample(out, "extractor_queue", "", metrics.extractorQueue());
+        histogram(out, "host_wait_seconds", Map.of("", metrics.hostWait()));
+        histogram(out, "download_seconds", Map.of("", metrics.downloadTime()));
+
+        Map<String, Histogram.Snapshot> hosts = new LinkedHashMap<>();
+        metrics.hostLatency().forEach((host, snapshot) -> hosts.put("host=\"" + escape(host) + "\"", snapshot));
+        histogram(out, "host_download_seconds", hosts);
+
+        type(out, "errors_total", "counter");
+        for (Map.Entry<String, Long> entry : metrics.errors().entrySet()) {
+            sample(out, "errors_total", "type=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a family of histograms of durations, and a family of their maximums.
+     *
+     * @param snapshots histograms by their labels.
+     */
+    private static void histogram(final StringBuilder out, final String name, final Map<String, Histogram.Snapshot> snapshots) {
+        type(out, name, "histogram");
+        for (Map.Entry<String, Histogram.Snapshot> entry : snapshots.entrySet()) {
+            String labels = entry.getKey();
+            Histogram.Snapshot snapshot = entry.getValue();
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+
+            long[] buckets = snapshot.buckets();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                cumulative += buckets[i];
+                if (MIN_BUCKET <= i && i <= MAX_BUCKET) {
+                    sample(out, name + "_bucket", prefix + "le=\"" + ((1L << i) - 1) / 1e9 + "\"", cumulative);
+                }
+            }
+            sample(out, name + "_bucket", prefix + "le=\"+Inf\"", snapshot.count());
+            sample(out, name + "_sum", labels, snapshot.sum() / 1e9);
+            sample(out, name + "_count", labels, snapshot.count());
+        }
+
+        String max = name.replace("_seconds", "_max_seconds");
+        type(out, max, "gauge");
+        snapshots.forEach((labels, snapshot) -> sample(out, max, labels, snapshot.max() / 1e9));
+    }
+
+    private static void type(final StringBuilder out, final String name, final String type) {
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder out, final String name, final String labels, final double value) {
+        out.append(PREFIX).append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,34 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+/**
+ * Crawl on one node of a distributed crawl. Runs until it is ended, as links may arrive at any time.
+ */
+interface PartialCrawl {
+    /**
+     * Adds a link, discovered by this or another node.
+     *
+     * @param url discovered URL.
+     * @param depth remaining depth of the URL.
+     * @throws IllegalArgumentException if the depth is greater than the visited set of the crawl can hold.
+     */
+    void discover(String url, int depth);
+
+    /**
+     * Checks whether the crawl has nothing to download or extract right now.
+     *
+     * @return {@code true} if the crawl is idle.
+     */
+    boolean isIdle();
+
+    /**
+     * Ends the crawl and waits for its remaining work.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void end() throws InterruptedException;
+
+    /**
+     * Aborts the crawl without waiting for it. Pages that are not being downloaded yet are skipped.
+     */
+    void cancel();
+}
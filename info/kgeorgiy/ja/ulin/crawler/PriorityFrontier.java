@@ -0,0 +1,102 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * URLs waiting to be downloaded, in order of their scores.
+ * <p>
+ * At most {@code limit} URLs are in flight, and the one with the highest score starts next.
+ * A score is recomputed when a new link to a waiting URL is found. At most {@code capacity} URLs wait:
+ * when there are more, the one with the lowest score is dropped. The frontier forgets dropped URLs,
+ * so the crawl should report them, as they are never offered again.
+ * </p>
+ */
+class PriorityFrontier implements Frontier {
+    private final int limit;
+    private final int capacity;
+    private final UrlScore score;
+    private final Consumer<String> onDrop;
+    private final NavigableSet<Waiting> queue = new TreeSet<>(
+            Comparator.comparingDouble(Waiting::score).reversed().thenComparingLong(Waiting::order)
+    );
+    private final Map<String, Waiting> waiting = new HashMap<>();
+    private long order = 0;
+    private int inFlight = 0;
+
+    /**
+     * Creates an empty frontier.
+     *
+     * @param limit maximal number of URLs in flight.
+     * @param capacity maximal number of waiting URLs.
+     * @param score score of URLs.
+     * @param onDrop called for every dropped URL.
+     */
+    PriorityFrontier(final int limit, final int capacity, final UrlScore score, final Consumer<String> onDrop) {
+        if (limit <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Limit and capacity must be positive");
+        }
+
+        this.limit = limit;
+        this.capacity = capacity;
+        this.score = score;
+        this.onDrop = onDrop;
+    }
+
+    private record Waiting(String url, int depth, int inLinks, double score, long order) {
+    }
+
+    @Override
+    public boolean offer(final String url, final int depth) {
+        Waiting dropped;
+        synchronized (this) {
+            if (inFlight < limit) {
+                ++inFlight;
+                return true;
+            }
+
+            add(url, depth, 1, order++);
+            dropped = queue.size() > capacity ? queue.pollLast() : null;
+            if (Objects.nonNull(dropped)) {
+                waiting.remove(dropped.url());
+            }
+        }
+
+        if (Objects.nonNull(dropped)) {
+            onDrop.accept(dropped.url());
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized String complete() {
+        Waiting next = queue.pollFirst();
+        if (Objects.isNull(next)) {
+            --inFlight;
+            return null;
+        }
+
+        waiting.remove(next.url());
+        return next.url();
+    }
+
+    @Override
+    public synchronized void linked(final String url, final int depth) {
+        Waiting old = waiting.get(url);
+        if (Objects.nonNull(old)) {
+            queue.remove(old);
+            add(url, Math.max(old.depth(), depth), old.inLinks() + 1, old.order());
+        }
+    }
+
+    private void add(final String url, final int depth, final int inLinks, final long order) {
+        Waiting entry = new Waiting(url, depth, inLinks, score.score(url, depth, inLinks), order);
+        waiting.put(url, entry);
+        queue.add(entry);
+    }
+}
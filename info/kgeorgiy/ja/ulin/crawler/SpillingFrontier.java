@@ -0,0 +1,99 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+
+/**
+ * URLs waiting to be downloaded, in order of discovery.
+ * <p>
+ * At most {@code limit} URLs are in flight, the others wait in the frontier. The first {@code limit}
+ * waiting URLs are kept in memory, the rest are spilled to a file, so a frontier may be larger than the heap.
+ * Without a file the frontier is not bounded and every URL is started at once.
+ * </p>
+ */
+class SpillingFrontier implements Frontier {
+    private final int limit;
+    private final Queue<String> memory = new ArrayDeque<>();
+    private final RandomAccessFile spill;
+    private long readPosition = 0;
+    private long writePosition = 0;
+    private int inFlight = 0;
+
+    /**
+     * Creates a frontier without limit.
+     */
+    SpillingFrontier() {
+        this.limit = Integer.MAX_VALUE;
+        this.spill = null;
+    }
+
+    /**
+     * Creates a frontier that spills to a file.
+     *
+     * @param limit maximal number of URLs in flight and in memory.
+     * @param file file to spill URLs to, truncated if exists.
+     * @throws IOException if the file can't be created.
+     */
+    SpillingFrontier(final int limit, final Path file) throws IOException {
+        this.limit = limit;
+        Files.deleteIfExists(file);
+        this.spill = new RandomAccessFile(file.toFile(), "rw");
+    }
+
+    @Override
+    public synchronized boolean offer(final String url, final int depth) {
+        if (inFlight < limit) {
+            ++inFlight;
+            return true;
+        }
+
+        try {
+            if (memory.size() < limit && writePosition == readPosition) {
+                memory.add(url);
+            } else {
+                spill.seek(writePosition);
+                spill.writeUTF(url);
+                writePosition = spill.getFilePointer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized String complete() {
+        String next = memory.poll();
+        if (Objects.isNull(next) && readPosition < writePosition) {
+            try {
+                spill.seek(readPosition);
+                next = spill.readUTF();
+                readPosition = spill.getFilePointer();
+                if (readPosition == writePosition) {
+                    readPosition = writePosition = 0;
+                    spill.setLength(0);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if (Objects.isNull(next)) {
+            --inFlight;
+        }
+        return next;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (Objects.nonNull(spill)) {
+            spill.close();
+        }
+    }
+}
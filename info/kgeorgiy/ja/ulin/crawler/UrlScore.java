@@ -0,0 +1,31 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+/**
+ * Priority of a URL waiting to be downloaded, URLs with higher scores are downloaded first.
+ */
+@FunctionalInterface
+public interface UrlScore {
+    /**
+     * Scores a URL.
+     *
+     * @param url waiting URL.
+     * @param depth maximal remaining depth the URL was reached with.
+     * @param inLinks number of links to the URL found so far.
+     * @return score of the URL.
+     */
+    double score(String url, int depth, int inLinks);
+
+    /**
+     * Scores URLs closer to the start higher, which gives breadth-first order.
+     */
+    static UrlScore breadthFirst() {
+        return (_, depth, _) -> depth;
+    }
+
+    /**
+     * Scores URLs by the number of links to them, closer ones first among equal.
+     */
+    static UrlScore inLinks() {
+        return (_, depth, inLinks) -> inLinks + depth / (depth + 1.0);
+    }
+}
@@ -0,0 +1,36 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+/**
+ * URLs visited by a crawl, with the maximal remaining depth every URL was reached with.
+ * <p>
+ * Implementations are thread-safe. Checking and raising the depth of a URL is atomic,
+ * so a URL is scheduled once per depth it is raised to.
+ * </p>
+ */
+public interface VisitedSet {
+    /**
+     * Raises the depth of a URL.
+     *
+     * @param url visited URL.
+     * @param depth remaining depth the URL is reached with.
+     * @return previous depth of the URL, or {@code 0} if it wasn't visited.
+     */
+    int visit(String url, int depth);
+
+    /**
+     * Returns the depth of a URL.
+     *
+     * @param url URL to check.
+     * @return maximal depth the URL was visited with, or {@code 0} if it wasn't visited.
+     */
+    int depth(String url);
+
+    /**
+     * Returns the maximal depth URLs may be visited with.
+     *
+     * @return maximal depth, or {@link Integer#MAX_VALUE} if it is not limited.
+     */
+    default int depthLimit() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -3,20 +3,37 @@ package info.kgeorgiy.ja.ulin.crawler;
 import info.kgeorgiy.java.advanced.crawler.*;
 import info.kgeorgiy.java.advanced.crawler.CachingDownloader;
 
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Crawler, that downloads pages concurrently with limits of downloads per host.
+ * <p>
+ * A page reached with a greater depth after its links were extracted is downloaded again,
+ * up to {@code REFETCH_ATTEMPTS} times if these downloads fail. Such downloads count against limits
+ * of concurrency and rate of the host, as first ones do, so a host may get more requests than it has pages.
+ * </p>
+ */
 public class WebCrawler implements AdvancedCrawler {
     private final Downloader downloader;
     private final ExecutorService downloaders;
     private final ExecutorService extractors;
-    // :NOTE: never cleaned
-    private final Map<String, Semaphore> hostLimits;
-    private final int perHost;
+    private final HostScheduler hosts;
+    private final CrawlerStats stats = new CrawlerStats();
+    private final Set<Tasks> running = ConcurrentHashMap.newKeySet();
+    // Settings of the following crawls, that are read once at the start of a crawl.
+    private volatile Supplier<? extends VisitedSet> visitedSets = HashVisitedSet::new;
+    private volatile Priority priority = null;
+    private volatile long pageBudget = Long.MAX_VALUE;
 
     private final static int DEPTH_DEFAULT = 1;
     private final static int DOWNLOADERS_DEFAULT = Integer.MAX_VALUE;
@@ -24,6 +41,9 @@ public class WebCrawler implements AdvancedCrawler {
     private final static int PER_HOST_DEFAULT = Integer.MAX_VALUE;
     private final static int TIME_SCALE = 10;
     private final static int TIMEOUT = 20;
+    private final static int FRONTIER_LIMIT = 1 << 16;
+    private final static String FRONTIER_FILE = "frontier.spill";
+    private final static int REFETCH_ATTEMPTS = 3;
 
     /**
      * Run WebCrawler, that bypasses and downloads pages from the internet.
@@ -68,41 +88,235 @@ public class WebCrawler implements AdvancedCrawler {
     }
 
     public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost) {
+        this(downloader, Executors.newFixedThreadPool(downloaders), Executors.newFixedThreadPool(extractors), perHost);
+    }
+
+    private WebCrawler(final Downloader downloader, final ExecutorService downloaders, final ExecutorService extractors, final int perHost) {
         this.downloader = downloader;
-        this.downloaders = Executors.newFixedThreadPool(downloaders);
-        this.extractors = Executors.newFixedThreadPool(extractors);
-        this.hostLimits = new ConcurrentHashMap<>();
-        this.perHost = perHost;
+        this.downloaders = downloaders;
+        this.extractors = extractors;
+        this.hosts = new HostScheduler(downloaders, perHost, stats);
+    }
+
+    /**
+     * Creates WebCrawler, that runs every download and extraction in its own virtual thread.
+     * <p>
+     * Number of concurrent downloads and extractions is bounded by the limits, not by the number of threads,
+     * so a large number of slow downloads doesn't need a large pool of platform threads.
+     * </p>
+     *
+     * @param downloader downloader of pages.
+     * @param downloaders maximal number of concurrent downloads.
+     * @param extractors maximal number of concurrent link extractions.
+     * @param perHost maximal number of concurrent downloads from one host.
+     * @return new crawler.
+     */
+    public static WebCrawler withVirtualThreads(final Downloader downloader, final int downloaders, final int extractors, final int perHost) {
+        return new WebCrawler(
+                downloader,
+                new LimitedExecutor(Executors.newVirtualThreadPerTaskExecutor(), downloaders),
+                new LimitedExecutor(Executors.newVirtualThreadPerTaskExecutor(), extractors),
+                perHost
+        );
+    }
+
+    /**
+     * Sets the kind of visited set of the following crawls. Crawls that are already running keep their sets.
+     * <p>
+     * By default full URLs are kept in a hash set. {@link FingerprintVisitedSet} and {@link BloomVisitedSet}
+     * take several times less memory on large crawls, at the cost of rarely skipping a URL.
+     * A {@code BloomVisitedSet} must be created for at least the depth of the crawls,
+     * a deeper crawl fails with {@link IllegalArgumentException} before it downloads anything.
+     * </p>
+     *
+     * @param visitedSets factory of an empty visited set, called once per crawl.
+     * @return this crawler.
+     */
+    public WebCrawler withVisitedSet(final Supplier<? extends VisitedSet> visitedSets) {
+        this.visitedSets = Objects.requireNonNull(visitedSets);
+        return this;
+    }
+
+    /**
+     * Limits request rate of every host by a token bucket.
+     *
+     * @param requestsPerSecond maximal long-term rate of requests to a host.
+     * @param burst maximal number of requests to a host, that may be sent at once after a pause.
+     * @return this crawler.
+     */
+    public WebCrawler withRateLimit(final double requestsPerSecond, final int burst) {
+        hosts.setRateLimit(requestsPerSecond, burst);
+        return this;
+    }
+
+    /**
+     * Makes concurrency of every host adaptive.
+     * <p>
+     * A host starts with one concurrent download. The limit grows by one per round of successful downloads
+     * up to {@code perHost}, and is halved when latency of the host grows twice or more of its minimum,
+     * or more than a fifth of recent downloads fail.
+     * </p>
+     *
+     * @return this crawler.
+     */
+    public WebCrawler withAdaptiveConcurrency() {
+        hosts.setAdaptive(true);
+        return this;
+    }
+
+    /**
+     * Downloads pages in order of their scores, instead of order of discovery.
+     * <p>
+     * At most {@code inFlight} pages are downloaded or wait for their hosts at the same time.
+     * The rest of discovered pages wait in a priority queue, and the best of them starts next.
+     * When more than {@code capacity} pages wait, the worst one is dropped and reported as an error.
+     * A dropped page stays in the visited set, so it is not crawled even if it is linked again.
+     * Crawls that save their state to a directory ignore scores.
+     * </p>
+     * <p>
+     * Crawls that are already running keep their order.
+     * </p>
+     *
+     * @param score score of pages.
+     * @param inFlight maximal number of scheduled pages.
+     * @param capacity maximal number of waiting pages.
+     * @return this crawler.
+     */
+    public WebCrawler withPriority(final UrlScore score, final int inFlight, final int capacity) {
+        if (inFlight <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Limits of the priority queue must be positive");
+        }
+
+        this.priority = new Priority(Objects.requireNonNull(score), inFlight, capacity);
+        return this;
+    }
+
+    /**
+     * Limits the number of downloads of every following crawl. Crawls that are already running keep their limit.
+     *
+     * @param pages maximal number of pages to download.
+     * @return this crawler.
+     */
+    public WebCrawler withPageBudget(final long pages) {
+        this.pageBudget = pages;
+        return this;
+    }
+
+    /**
+     * Returns runtime metrics of the crawler.
+     * <p>
+     * Metrics are collected all the time, and can be polled from any thread.
+     * Every download and extraction is also reported as a {@code info.kgeorgiy.ja.ulin.crawler.Download}
+     * or {@code info.kgeorgiy.ja.ulin.crawler.Extract} JFR event.
+     * </p>
+     *
+     * @return snapshot of metrics.
+     */
+    public CrawlerMetrics metrics() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Serves metrics of the crawler over HTTP as plain text, at {@code /metrics}.
+     *
+     * @param address address to listen on.
+     * @return running server, to be stopped by the caller.
+     * @throws IOException if the server can't be started.
+     */
+    public HttpServer serveMetrics(final InetSocketAddress address) throws IOException {
+        return MetricsEndpoint.start(address, this::metrics);
     }
 
     @Override
     public Result download(final String url, final int depth, final List<String> excludes) {
         CustomResult result = new CustomResult();
-        downloadLayer(
-                List.of(url),
-                depth,
-                (host) -> excludes.stream().anyMatch(host::contains),
-                Collections.newSetFromMap(new ConcurrentHashMap<>()),
-                result
-        );
-
-        return new Result(result.getDownloaded(), result.getErrors());
+        new Crawl(HostFilter.containing(excludes), result).run(url, depth);
+        return result.toResult();
     }
 
     @Override
     public Result advancedDownload(final String url, final int depth, final List<String> hosts) {
         CustomResult result = new CustomResult();
-        Set<String> set = hosts.stream().collect(Collectors.toSet());
-        downloadLayer(List.of(url), depth, set::contains, Collections.newSetFromMap(new ConcurrentHashMap<>()), result);
+        new Crawl(HostFilter.equalTo(hosts), result).run(url, depth);
+        return result.toResult();
+    }
+
+    /**
+     * Downloads web site up to specified depth, passing every page to the listener as soon as it is downloaded.
+     * <p>
+     * Nothing is collected for the result, so the listener may process pages while the crawl goes on.
+     * Documents are not kept after their links are extracted: the crawl holds only its visited sets
+     * and its frontier, and memory doesn't grow with the number of downloaded pages otherwise.
+     * </p>
+     *
+     * @param url start <a href="http://tools.ietf.org/html/rfc3986">URL</a>.
+     * @param depth download depth.
+     * @param excludes URLs containing one of given substrings are ignored.
+     * @param listener receiver of downloaded pages and errors.
+     */
+    public void download(final String url, final int depth, final List<String> excludes, final CrawlListener listener) {
+        new Crawl(HostFilter.containing(excludes), listener).run(url, depth);
+    }
 
-        return new Result(result.getDownloaded(), result.getErrors());
+    /**
+     * Downloads web site up to specified depth, saving progress of the crawl to a directory.
+     * <p>
+     * If the directory contains state of an interrupted crawl, the crawl is resumed: pages downloaded before
+     * are not downloaded again, unless their links are still to be extracted. At most {@code 65536} URLs
+     * are downloaded concurrently or kept in memory, the rest of the frontier is spilled to the directory.
+     * Otherwise seen URLs are kept in memory by the visited set only, so a crawl larger than the heap
+     * needs a compact one, such as {@link FingerprintVisitedSet}.
+     * </p>
+     *
+     * @param url start <a href="http://tools.ietf.org/html/rfc3986">URL</a>.
+     * @param depth download depth.
+     * @param excludes URLs containing one of given substrings are ignored.
+     * @param directory directory of the crawl state.
+     * @return download result, including pages downloaded before the restart.
+     * @throws UncheckedIOException if the state can't be read or written.
+     */
+    public Result download(final String url, final int depth, final List<String> excludes, final Path directory) {
+        try (CrawlStore store = new CrawlStore(directory);
+             Frontier frontier = new SpillingFrontier(FRONTIER_LIMIT, directory.resolve(FRONTIER_FILE))) {
+            CustomResult result = new CustomResult();
+            store.downloaded().forEach(result::add);
+            store.errors().forEach((page, message) -> result.putError(page, new IOException(message)));
+
+            new Crawl(HostFilter.containing(excludes), result, store, frontier).run(url, depth);
+            store.checkErrors();
+            return result.toResult();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts a crawl, that is a part of a distributed one, and returns without waiting for it.
+     * <p>
+     * Links that the router forwards are not crawled here, but are still kept in the visited set,
+     * so every link leaves the node once per depth. The crawl goes on until it is ended,
+     * as more links may arrive from other nodes after it runs out of work.
+     * </p>
+     *
+     * @param isBanned filter of skipped hosts.
+     * @param router router of links owned by other nodes.
+     * @param listener receiver of downloaded pages and errors.
+     * @return running crawl.
+     */
+    PartialCrawl startPart(final HostFilter isBanned, final LinkRouter router, final CrawlListener listener) {
+        Crawl crawl = new Crawl(isBanned, listener, null, null, router);
+        crawl.hold();
+        return crawl;
     }
 
     @Override
     public void close() {
         downloaders.shutdownNow();
         extractors.shutdownNow();
+        hosts.close();
 //         :NOTE: some logic about awaiting termination
+        // Tasks dropped by shutdownNow never finish, so running crawls are released explicitly.
+        running.forEach(Tasks::cancel);
 
         await(downloaders, "downloaders");
         await(extractors, "extractors");
@@ -118,115 +332,453 @@ public class WebCrawler implements AdvancedCrawler {
         }
     }
 
-    private void downloadLayer(
-            final List<String> urls,
-            final int depth,
-            final Function<String, Boolean> isBanned,
-            final Set<String> used,
-            final CustomResult result) {
-        if (depth == 0) {
-            return;
+    /**
+     * State of a single crawl.
+     * <p>
+     * Pages are downloaded and extracted as a continuous pipeline: links are scheduled as soon as they are extracted.
+     * Every URL keeps the maximal remaining depth it was reached with. If a URL is reached again
+     * with a greater depth before its links are extracted, they are extracted with the new depth.
+     * Documents are dropped after extraction, so a page reached with a greater depth after that is downloaded
+     * again, without reporting it twice. Either way the result is the same as of a breadth-first crawl,
+     * unless the page fails to download again {@code REFETCH_ATTEMPTS} times. Then its links are not extracted
+     * with the greater depth, and the page is passed to {@link CrawlListener#incomplete}.
+     * </p>
+     * <p>
+     * The page budget is charged for first downloads only.
+     * </p>
+     * <p>
+     * If the crawl has a store, every step is saved to it, and the crawl starts from the saved state.
+     * </p>
+     */
+    private class Crawl implements PartialCrawl {
+        private final HostFilter isBanned;
+        private final CrawlStore store;
+        private final Frontier frontier;
+        private final CrawlListener listener;
+        private final LinkRouter router;
+        private final VisitedSet visited = visitedSets.get();
+        // Depths links of downloaded pages are extracted with.
+        private final VisitedSet extracted = visitedSets.get();
+        // Pages that are downloaded again, as they are reached with a greater depth after their extraction,
+        // with the number of failed attempts.
+        private final Map<String, Integer> refetching = new ConcurrentHashMap<>();
+        private final Tasks tasks = new Tasks();
+        // Pages downloaded before the restart or earlier in this crawl: the set of the store itself, not a copy.
+        private final Set<String> restored;
+        private final AtomicLong budget = new AtomicLong(pageBudget);
+
+        Crawl(final HostFilter isBanned, final CrawlListener listener) {
+            this(isBanned, listener, null, null, null);
         }
 
-        List<String> nextLayer = Collections.synchronizedList(new ArrayList<>());
-        CountDownLatch latch = new CountDownLatch(urls.size());
+        Crawl(final HostFilter isBanned, final CrawlListener listener, final CrawlStore store, final Frontier frontier) {
+            this(isBanned, listener, store, frontier, null);
+        }
 
-        for (String url : urls) {
-            String host = getHostName(url, result, isBanned, used);
+        Crawl(
+                final HostFilter isBanned,
+                final CrawlListener listener,
+                final CrawlStore store,
+                final Frontier frontier,
+                final LinkRouter router
+        ) {
+            this.isBanned = isBanned;
+            this.listener = listener;
+            this.store = store;
+            this.router = router;
+            this.restored = Objects.nonNull(store) ? store.downloaded() : Set.of();
+            Priority priority = WebCrawler.this.priority;
+            if (Objects.nonNull(frontier)) {
+                this.frontier = frontier;
+            } else if (Objects.nonNull(priority)) {
+                this.frontier = new PriorityFrontier(priority.inFlight(), priority.capacity(), priority.score(), this::dropped);
+            } else {
+                this.frontier = new SpillingFrontier();
+            }
+        }
 
-            if (host.isEmpty()) {
-                latch.countDown();
-                continue;
+        void run(final String url, final int depth) {
+            checkDepth(depth);
+            if (Objects.nonNull(store)) {
+                restore();
             }
 
-            downloaders.submit(() -> {
-                try {
-                    Document curDocument = download(host, url);
-                    result.add(url);
-
-                    extractors.submit(() -> {
-                        try {
-                            List<String> links = curDocument.extractLinks();
-                            nextLayer.addAll(links);
-                        } catch (IOException ignore) {
-                        } finally {
-                            latch.countDown();
+            if (depth > 0) {
+                discover(url, depth);
+            }
+
+            running.add(tasks);
+            try {
+                if (downloaders.isShutdown()) {
+                    tasks.cancel();
+                }
+                tasks.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.remove(tasks);
+            }
+        }
+
+        /**
+         * Keeps a partial crawl running while it has no work.
+         */
+        void hold() {
+            tasks.increment();
+            running.add(tasks);
+            if (downloaders.isShutdown()) {
+                tasks.cancel();
+            }
+        }
+
+        @Override
+        public boolean isIdle() {
+            return tasks.count() == 1;
+        }
+
+        @Override
+        public void end() throws InterruptedException {
+            tasks.decrement();
+            try {
+                tasks.await();
+            } finally {
+                running.remove(tasks);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            tasks.cancel();
+            running.remove(tasks);
+        }
+
+        /**
+         * Continues the crawl from the state of the store.
+         * Seen pages are downloaded, unless they were downloaded or failed before.
+         * Pages downloaded before are downloaded again only if their links are still to be extracted.
+         */
+        private void restore() {
+            try {
+                // Every seen page is visited first, so pages discovered by the restored ones are not enqueued twice.
+                store.forEachSeen(visited::visit);
+                store.forEachSeen((url, depth) -> {
+                    if (restored.contains(url)) {
+                        if (depth > 1 && store.extracted(url) < depth) {
+                            enqueue(url, depth);
+                        } else {
+                            extracted.visit(url, depth);
                         }
-                    });
-                } catch (IOException e) {
-                    result.putError(url, e);
-                    latch.countDown();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    latch.countDown();
+                    } else if (!store.errors().containsKey(url)) {
+                        enqueue(url, depth);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void discover(final String url, final int depth) {
+            checkDepth(depth);
+            int previous = visited.visit(url, depth);
+            if (depth > previous && Objects.nonNull(router) && router.forward(url, depth)) {
+                return;
+            }
+            if (depth > previous && Objects.nonNull(store)) {
+                store.seen(url, depth);
+            }
+
+            if (previous == 0) {
+                enqueue(url, depth);
+            } else if (depth > previous && extracted.depth(url) > 0 && Objects.isNull(refetching.putIfAbsent(url, 0))) {
+                enqueue(url, depth);
+            } else {
+                frontier.linked(url, depth);
+            }
+        }
+
+        /**
+         * Rejects a depth the visited sets can't hold in the calling thread, as errors of tasks are not reported.
+         */
+        private void checkDepth(final int depth) {
+            if (depth > visited.depthLimit()) {
+                throw new IllegalArgumentException("Depth " + depth + " is greater than " + visited.depthLimit() + " of the visited set");
+            }
+        }
+
+        private void enqueue(final String url, final int depth) {
+            tasks.increment();
+            if (frontier.offer(url, depth) && !launch(url)) {
+                finish();
+            }
+        }
+
+        /**
+         * Schedules download of a URL taken from the frontier.
+         *
+         * @return {@code false} if the URL is not downloaded.
+         */
+        private boolean launch(final String url) {
+            String host = getHostName(url, listener, isBanned);
+            if (host.isEmpty() || tasks.isCancelled() || !isDownloadedBefore(url) && budget.getAndDecrement() <= 0) {
+                return false;
+            }
+
+            // Pages of a cancelled crawl are skipped, so it frees downloaders at once.
+            hosts.schedule(host, hostWait -> {
+                try {
+                    return downloadPage(url, hostWait);
+                } finally {
+                    finish();
                 }
-            });
+            }, this::abandon, tasks::isCancelled);
+            return true;
+        }
 
-            // :NOTE: nope. Extractor blocks when can work
+        /**
+         * Completes a URL, starting the next ones from the frontier.
+         */
+        private void finish() {
+            String next;
+            while (Objects.nonNull(next = frontier.complete()) && !launch(next)) {
+                tasks.decrement();
+            }
+            tasks.decrement();
         }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        /**
+         * Reports a URL dropped by the frontier, as it won't be downloaded.
+         */
+        private void dropped(final String url) {
+            listener.failed(url, new IOException("Dropped from the frontier: " + url));
+            tasks.decrement();
         }
 
-        hostLimits.clear();
+        /**
+         * Completes a URL and drops the frontier, if the crawler is closed or the crawl is cancelled.
+         */
+        private void abandon() {
+            while (Objects.nonNull(frontier.complete())) {
+                tasks.decrement();
+            }
+            tasks.decrement();
+        }
 
-        downloadLayer(nextLayer, depth - 1, isBanned, used, result);
+        private boolean isDownloadedBefore(final String url) {
+            return refetching.containsKey(url) || restored.contains(url);
+        }
+
+        /**
+         * Downloads a page and extracts its links.
+         *
+         * @return {@code false} if the download failed.
+         */
+        private boolean downloadPage(final String url, final long hostWait) {
+            Integer failures = refetching.remove(url);
+            boolean again = Objects.nonNull(failures) || restored.contains(url);
+            DownloadEvent event = new DownloadEvent();
+            event.begin();
+            try {
+                Document document = downloader.download(url);
+                commit(event, url, hostWait, null);
+                if (!again) {
+                    listener.downloaded(url, document);
+                }
+                if (Objects.nonNull(store)) {
+                    store.downloaded(url);
+                }
+
+                extractClaimed(url, document);
+                return true;
+            } catch (IOException e) {
+                commit(event, url, hostWait, e);
+                stats.failed(e);
+                if (!again) {
+                    listener.failed(url, e);
+                    // Downloads interrupted by close are retried on resume.
+                    if (Objects.nonNull(store) && !downloaders.isShutdown()) {
+                        store.error(url, e);
+                    }
+                } else {
+                    refetchFailed(url, Objects.isNull(failures) ? 1 : failures + 1, e);
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Downloads a page again later, or reports that its links are not extracted with the depth it has now.
+         */
+        private void refetchFailed(final String url, final int failures, final IOException error) {
+            if (failures < REFETCH_ATTEMPTS && !tasks.isCancelled()) {
+                refetching.put(url, failures);
+                enqueue(url, visited.depth(url));
+            } else {
+                listener.incomplete(url, error);
+            }
+        }
+
+        /**
+         * Extracts links of a downloaded page with every depth it reaches, until no greater one is claimed.
+         * <p>
+         * A depth is claimed in {@code extracted} after it is read, and the depth is read again after the claim.
+         * So a concurrent discover with a greater depth either sees no claim and its depth is read here,
+         * or sees the claim and downloads the page again. If both happen, only one of them extracts the depth.
+         * </p>
+         */
+        private void extractClaimed(final String url, final Document document) {
+            int depth;
+            while (extracted.visit(url, depth = visited.depth(url)) < depth) {
+                extract(url, document, depth);
+            }
+        }
+
+        private void extract(final String url, final Document document, final int depth) {
+            if (depth <= 1) {
+                return;
+            }
+
+            submitExtraction(() -> {
+                ExtractEvent event = new ExtractEvent();
+                event.begin();
+                try {
+                    List<String> links = document.extractLinks();
+                    for (String link : links) {
+                        discover(link, depth - 1);
+                    }
+                    if (Objects.nonNull(store)) {
+                        store.extracted(url, depth);
+                    }
+
+                    event.url = url;
+                    event.links = links.size();
+                    event.commit();
+                } catch (IOException ignore) {
+                }
+            });
+        }
+
+        private void submitExtraction(final Runnable task) {
+            tasks.increment();
+            stats.extractorQueue.incrementAndGet();
+            try {
+                extractors.submit(() -> {
+                    stats.extractorQueue.decrementAndGet();
+                    stats.extracting.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        stats.extracting.decrementAndGet();
+                        tasks.decrement();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                stats.extractorQueue.decrementAndGet();
+                tasks.decrement();
+            }
+        }
     }
 
-    private static String getHostName(final String url, final CustomResult result, final Function<String, Boolean> isBanned, final Set<String> used) {
-        if (!used.add(url)) {
-            return "";
+    private static void commit(final DownloadEvent event, final String url, final long hostWait, final IOException error) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.hostWait = hostWait;
+            event.error = Objects.isNull(error) ? null : error.getClass().getSimpleName() + ": " + error.getMessage();
+            event.commit();
+        }
+    }
+
+    private static class Tasks {
+        private int count = 0;
+        private boolean cancelled = false;
+
+        public synchronized void increment() {
+            ++count;
+        }
+
+        public synchronized void decrement() {
+            --count;
+
+            if (count == 0) {
+                notifyAll();
+            }
+        }
+
+        public synchronized int count() {
+            return count;
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
         }
 
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized void await() throws InterruptedException {
+            while (count > 0 && !cancelled) {
+                wait();
+            }
+        }
+    }
+
+    private String getHostName(final String url, final CrawlListener listener, final HostFilter isBanned) {
         String host;
 
         try {
             host = String.valueOf(URLUtils.getHost(url));
         } catch (MalformedURLException e) {
-            result.putError(url, e);
+            stats.failed(e);
+            listener.failed(url, e);
             return "";
         }
 
-        if (isBanned.apply(host)) {
+        if (isBanned.test(host)) {
             return "";
         }
 
         return host;
     }
 
-    private static class CustomResult {
+    /**
+     * Order of pages set by {@link #withPriority}.
+     */
+    private record Priority(UrlScore score, int inFlight, int capacity) {
+    }
+
+    private static class CustomResult implements CrawlListener {
         private final List<String> downloaded = Collections.synchronizedList(new ArrayList<>());
         private final Map<String, IOException> errors = new ConcurrentHashMap<>();
 
-        public void add(final String newDownloaded) {
-            downloaded.add(newDownloaded);
+        @Override
+        public void downloaded(final String url, final Document document) {
+            add(url);
         }
 
-        public void putError(final String url, final IOException error) {
-            errors.put(url, error);
+        @Override
+        public void failed(final String url, final IOException error) {
+            putError(url, error);
         }
 
-        public List<String> getDownloaded() {
-            return downloaded;
+        // The page stays downloaded, the error tells that links reachable through it may be missing.
+        @Override
+        public void incomplete(final String url, final IOException error) {
+            putError(url, error);
         }
 
-        public Map<String, IOException> getErrors() {
-            return errors;
+        public void add(final String newDownloaded) {
+            downloaded.add(newDownloaded);
         }
-    }
 
-    private Document download(final String host, final String url) throws IOException, InterruptedException {
-        // :NOTE: do not wait semaphore try to make useful work
-        Semaphore semaphore = hostLimits.computeIfAbsent(host, _ -> new Semaphore(perHost));
-        semaphore.acquire();
+        public void putError(final String url, final IOException error) {
+            errors.put(url, error);
+        }
 
-        try {
-            return downloader.download(url);
-        } finally {
-            semaphore.release();
+        public Result toResult() {
+            return new Result(downloaded, errors);
         }
     }
 }
@@ -0,0 +1,323 @@
+package info.kgeorgiy.ja.ulin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.CachingDownloader;
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.URLUtils;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.ExportException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CrawlNode} that crawls its hosts with a {@link WebCrawler}.
+ * <p>
+ * Links to other hosts are buffered per owner and sent when {@code BATCH} of them are collected,
+ * or every {@code FLUSH_MILLIS} otherwise. A link is sent once per greater depth it is reached with,
+ * as forwarded links are kept in the visited set of the node.
+ * </p>
+ */
+public class WebCrawlerNode implements CrawlNode, AutoCloseable {
+    private final static int BATCH = 256;
+    private final static long FLUSH_MILLIS = 10;
+    private final static int PORT_DEFAULT = Registry.REGISTRY_PORT;
+    private final static int DOWNLOADERS_DEFAULT = 16;
+    private final static int EXTRACTORS_DEFAULT = 4;
+    private final static int PER_HOST_DEFAULT = 4;
+    private final static int TIME_SCALE = 10;
+
+    private final String name;
+    private final WebCrawler crawler;
+    private final Map<Long, NodeCrawl> crawls = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("node-flusher").factory()
+    );
+
+    /**
+     * Run a node, that crawls pages from the internet, and bind it to the registry on local host.
+     * The registry is created, if there is none on the port, so several nodes may run on one machine.
+     *
+     * @param args "name [port [downloaders [extractors [perHost]]]]"
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length < 1) {
+            System.err.println("Not enough argument: expected \"name [port [downloaders [extractors [perHost]]]]\"");
+            return;
+        }
+
+        String name = args[0];
+        int port = args.length >= 2 ? Integer.parseInt(args[1]) : PORT_DEFAULT;
+        int downloaders = args.length >= 3 ? Integer.parseInt(args[2]) : DOWNLOADERS_DEFAULT;
+        int extractors = args.length >= 4 ? Integer.parseInt(args[3]) : EXTRACTORS_DEFAULT;
+        int perHost = args.length >= 5 ? Integer.parseInt(args[4]) : PER_HOST_DEFAULT;
+
+        WebCrawler crawler;
+        try {
+            crawler = new WebCrawler(new CachingDownloader(TIME_SCALE), downloaders, extractors, perHost);
+        } catch (IOException e) {
+            System.err.println("Can't start node: " + e.getMessage());
+            return;
+        }
+
+        WebCrawlerNode node = new WebCrawlerNode(name, crawler);
+        try {
+            registry(port).rebind(name, UnicastRemoteObject.exportObject(node, 0));
+            System.out.println("Node " + name + " is bound on port " + port);
+        } catch (RemoteException e) {
+            System.err.println("Can't start node: " + e.getMessage());
+            node.close();
+            crawler.close();
+        }
+    }
+
+    private static Registry registry(final int port) throws RemoteException {
+        try {
+            return LocateRegistry.createRegistry(port);
+        } catch (ExportException e) {
+            return LocateRegistry.getRegistry(port);
+        }
+    }
+
+    /**
+     * Creates a node. The node should be exported and bound by the caller.
+     *
+     * @param name name of the node, the same as in assignments of crawls.
+     * @param crawler crawler of hosts of the node.
+     */
+    public WebCrawlerNode(final String name, final WebCrawler crawler) {
+        this.name = Objects.requireNonNull(name);
+        this.crawler = Objects.requireNonNull(crawler);
+    }
+
+    @Override
+    public void start(final Assignment assignment) {
+        if (flusher.isShutdown()) {
+            throw new IllegalStateException("Node " + name + " is closed");
+        }
+
+        int self = assignment.names().indexOf(name);
+        if (self < 0) {
+            throw new IllegalArgumentException("Node " + name + " is not in the assignment");
+        }
+
+        NodeCrawl nodeCrawl = new NodeCrawl(assignment, self);
+        if (Objects.nonNull(crawls.putIfAbsent(assignment.crawl(), nodeCrawl))) {
+            nodeCrawl.cancel();
+            throw new IllegalStateException("Crawl " + assignment.crawl() + " is already started");
+        }
+    }
+
+    @Override
+    public void accept(final long crawl, final List<Link> links) {
+        get(crawl).accept(links);
+    }
+
+    @Override
+    public Status status(final long crawl) {
+        return get(crawl).status();
+    }
+
+    @Override
+    public Part finish(final long crawl) {
+        NodeCrawl nodeCrawl = crawls.remove(crawl);
+        if (Objects.isNull(nodeCrawl)) {
+            return new Part(List.of(), Map.of());
+        }
+
+        try {
+            return nodeCrawl.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while finishing crawl " + crawl, e);
+        }
+    }
+
+    @Override
+    public Part cancel(final long crawl) {
+        NodeCrawl nodeCrawl = crawls.remove(crawl);
+        return Objects.isNull(nodeCrawl) ? new Part(List.of(), Map.of()) : nodeCrawl.cancel();
+    }
+
+    /**
+     * Cancels crawls of the node, stops sending their links and unexports the node, if it is exported.
+     * The crawler is not closed, as it is passed by the caller.
+     */
+    @Override
+    public void close() {
+        crawls.keySet().forEach(this::cancel);
+        flusher.shutdownNow();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException ignore) {
+            // The node is not exported.
+        }
+    }
+
+    private NodeCrawl get(final long crawl) {
+        NodeCrawl nodeCrawl = crawls.get(crawl);
+        if (Objects.isNull(nodeCrawl)) {
+            throw new IllegalStateException("Crawl " + crawl + " is not started");
+        }
+        return nodeCrawl;
+    }
+
+    /**
+     * State of a single crawl on the node.
+     */
+    private class NodeCrawl implements LinkRouter, CrawlListener {
+        private final Assignment assignment;
+        private final int self;
+        private final HostRing ring;
+        private final HostFilter isBanned;
+        private final List<List<Link>> outbox = new ArrayList<>();
+        // Links buffered or being sent.
+        private final AtomicLong pending = new AtomicLong();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong received = new AtomicLong();
+        private final List<String> downloaded = Collections.synchronizedList(new ArrayList<>());
+        private final Map<String, IOException> errors = new ConcurrentHashMap<>();
+        private final PartialCrawl crawl;
+        private final ScheduledFuture<?> flush;
+
+        NodeCrawl(final Assignment assignment, final int self) {
+            this.assignment = assignment;
+            this.self = self;
+            this.ring = new HostRing(assignment.names());
+            this.isBanned = assignment.exact()
+                    ? HostFilter.equalTo(assignment.hosts())
+                    : HostFilter.containing(assignment.hosts());
+            for (int i = 0; i < assignment.names().size(); ++i) {
+                outbox.add(new ArrayList<>());
+            }
+
+            crawl = crawler.startPart(isBanned, this, this);
+            flush = flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void accept(final List<Link> links) {
+            for (Link link : links) {
+                crawl.discover(link.url(), link.depth());
+            }
+            // Counted after the links are added, so the node is not idle when the batch is seen as received.
+            received.incrementAndGet();
+        }
+
+        /**
+         * The crawl is checked before the outbox, as links are forwarded only while the crawl is busy.
+         */
+        Status status() {
+            boolean idle = crawl.isIdle() && pending.get() == 0;
+            return new Status(idle, sent.get(), received.get());
+        }
+
+        Part finish() throws InterruptedException {
+            flush.cancel(false);
+            crawl.end();
+            return part();
+        }
+
+        Part cancel() {
+            flush.cancel(false);
+            crawl.cancel();
+            return part();
+        }
+
+        private Part part() {
+            return new Part(new ArrayList<>(downloaded), new HashMap<>(errors));
+        }
+
+        @Override
+        public boolean forward(final String url, final int depth) {
+            String host;
+            try {
+                host = URLUtils.getHost(url);
+            } catch (MalformedURLException e) {
+                return false;
+            }
+
+            int owner = ring.owner(host);
+            // Banned hosts are left to the local crawl, that skips them anyway.
+            if (owner == self || isBanned.test(host)) {
+                return false;
+            }
+
+            pending.incrementAndGet();
+            List<Link> batch = null;
+            synchronized (outbox) {
+                List<Link> buffer = outbox.get(owner);
+                buffer.add(new Link(url, depth));
+                if (buffer.size() >= BATCH) {
+                    batch = take(owner);
+                }
+            }
+            if (Objects.nonNull(batch)) {
+                send(owner, batch);
+            }
+            return true;
+        }
+
+        private void flush() {
+            for (int owner = 0; owner < outbox.size(); ++owner) {
+                List<Link> batch;
+                synchronized (outbox) {
+                    batch = take(owner);
+                }
+                if (!batch.isEmpty()) {
+                    send(owner, batch);
+                }
+            }
+        }
+
+        private List<Link> take(final int owner) {
+            List<Link> batch = outbox.get(owner);
+            outbox.set(owner, new ArrayList<>());
+            return batch;
+        }
+
+        /**
+         * Sends a batch and counts it once it is received, as a lost batch never adds work.
+         * The node is not idle until then, as the links are still pending.
+         * Links of a batch the owner fails to accept, for example as it has cancelled the crawl, are reported
+         * as errors, so a failure never escapes to the flusher, that would stop flushing.
+         */
+        private void send(final int owner, final List<Link> batch) {
+            try {
+                assignment.nodes().get(owner).accept(assignment.crawl(), batch);
+                sent.incrementAndGet();
+            } catch (RemoteException e) {
+                failed(batch, e);
+            } catch (RuntimeException e) {
+                failed(batch, new IOException("Node " + assignment.names().get(owner) + " rejected links", e));
+            } finally {
+                pending.addAndGet(-batch.size());
+            }
+        }
+
+        private void failed(final List<Link> batch, final IOException error) {
+            for (Link link : batch) {
+                failed(link.url(), error);
+            }
+        }
+
+        @Override
+        public void downloaded(final String url, final Document document) {
+            downloaded.add(url);
+        }
+
+        @Override
+        public void failed(final String url, final IOException error) {
+            errors.put(url, error);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a block computed by {@link IterativeParallelism}.
+ */
+@Name("info.kgeorgiy.ja.ulin.iterative.Block")
+@Label("Iterative Block")
+@Category({"Parallel Mapper"})
+@Description("Block of a list processed by one thread")
+class BlockEvent extends Event {
+    @Label("Block")
+    int block;
+
+    @Label("From")
+    int from;
+
+    @Label("To")
+    int to;
+}
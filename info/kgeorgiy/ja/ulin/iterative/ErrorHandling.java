@@ -0,0 +1,32 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import java.util.Objects;
+
+/**
+ * Collects failures of map tasks: the first one is rethrown, the others are suppressed into it.
+ * Errors are collected as well, so a task that throws one doesn't leave a silent {@code null} in the result.
+ */
+class ErrorHandling {
+    private Throwable error = null;
+
+    public synchronized void addSuppressed(Throwable e) {
+        if (Objects.nonNull(error)) {
+            error.addSuppressed(e);
+        } else {
+            error = e;
+        }
+    }
+
+    public synchronized void checkErrors() {
+        if (error instanceof RuntimeException e) {
+            throw e;
+        }
+        if (error instanceof Error e) {
+            throw e;
+        }
+        if (Objects.nonNull(error)) {
+            // A checked exception, thrown sneakily by a function.
+            throw new IllegalStateException("Task failed", error);
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package info.kgeorgiy.ja.ulin.iterative;
 
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
 import info.kgeorgiy.java.advanced.iterative.AdvancedIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.*;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static java.lang.Math.min;
 
@@ -16,9 +17,17 @@ import static java.lang.Math.min;
  * <p>
  * Have some methods for parallels computing.
  * </p>
+ * <p>
+ * Every method throws {@link IllegalArgumentException} if the number of threads is not positive.
+ * </p>
  */
 public class IterativeParallelism implements AdvancedIP {
     private final ParallelMapper mapper;
+    private final Histogram blockTime = new Histogram();
+    private final LongAdder evaluations = new LongAdder();
+    private volatile double lastSkew = 1;
+
+    private final static int NOT_FOUND = Integer.MAX_VALUE;
 
     /**
      * Creates an {@code IterativeParallelism} class, that run tasks with internal threads.
@@ -36,49 +45,127 @@ public class IterativeParallelism implements AdvancedIP {
         this.mapper = mapper;
     }
 
-    private <U> Stream<U> calculateSublist(
-            Pair<Integer, Integer> pos,
-            Function<Integer, Optional<U>> calculate,
-            Function<Stream<U>, Stream<U>> postEval) {
-        List<Optional<U>> builder = new ArrayList<>();
+    /**
+     * Creates an {@code IterativeParallelism} class, that run tasks with virtual threads.
+     * <p>
+     * Number of blocks processed concurrently is bounded by {@code limit}, whatever number of threads is requested.
+     * </p>
+     *
+     * @param limit maximal number of concurrently processed blocks.
+     * @return instance of {@code IterativeParallelism} backed by {@link VirtualThreadMapper}.
+     */
+    public static IterativeParallelism withVirtualThreads(int limit) {
+        return new IterativeParallelism(new VirtualThreadMapper(limit));
+    }
 
-        for (int j = pos.first(); j < pos.second(); ++j) {
-            Optional<U> tmp = calculate.apply(j);
-            builder.add(tmp);
+    /**
+     * Computation over a block {@code [from, to)} of indices, that produces one value per block.
+     *
+     * @param <U> type of the block result.
+     */
+    @FunctionalInterface
+    private interface Block<U> {
+        U apply(int from, int to);
+    }
+
+    /**
+     * Splits {@code [0, size)} into at most {@code threads} blocks and computes them concurrently.
+     *
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    private <U> List<U> evaluate(int threads, int size, Block<U> block) throws InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be more than 0");
         }
+        final int blocks = min(threads, size);
+        long[] times = new long[blocks];
 
-        return postEval.apply(builder.stream().flatMap(Optional::stream));
-    }
+        if (Objects.nonNull(mapper)) {
+            List<U> result = mapper.map(i -> runBlock(block, i, blocks, size, times),
+                    IntStream.range(0, blocks).boxed().toList());
+            record(times);
+            return result;
+        }
 
-    private <U> Stream<U> evaluate(
-            int threads,
-            Function<Integer, Pair<Integer, Integer>> getPos,
-            Function<Integer, Optional<U>> calculate,
-            Function<Stream<U>, Stream<U>> postEval
-    ) throws InterruptedException {
-        Thread[] t = new Thread[threads];
+        Object[] ans = new Object[blocks];
+        Thread[] t = new Thread[blocks];
+        ErrorHandling error = new ErrorHandling();
 
-        List<Stream<U>> ans;
+        for (int i = 0; i < blocks; ++i) {
+            final int finI = i;
 
-        if (Objects.nonNull(mapper)) {
-            List<Pair<Integer, Integer>> ranges = IntStream.range(0, threads).boxed().map(getPos).collect(Collectors.toList());
+            t[i] = new Thread(() -> {
+                try {
+                    ans[finI] = runBlock(block, finI, blocks, size, times);
+                } catch (Throwable e) {
+                    error.addSuppressed(e);
+                }
+            });
+            t[i].start();
+        }
 
-            ans = mapper.map(pos -> calculateSublist(pos, calculate, postEval), ranges);
-        } else {
-            ans = new ArrayList<>(Collections.nCopies(threads, null));
+        joinThreads(t);
+        error.checkErrors();
+        record(times);
 
-            for (int i = 0; i < threads; ++i) {
-                Pair<Integer, Integer> pos = getPos.apply(i);
-                final int finI = i;
+        @SuppressWarnings("unchecked")
+        List<U> result = (List<U>) Arrays.asList(ans);
+        return result;
+    }
 
-                t[i] = new Thread(() -> ans.set(finI, calculateSublist(pos, calculate, postEval)));
-                t[i].start();
+    private static <U> U runBlock(Block<U> block, int i, int blocks, int size, long[] times) {
+        BlockEvent event = new BlockEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        int from = from(i, blocks, size);
+        int to = from(i + 1, blocks, size);
+        try {
+            return block.apply(from, to);
+        } finally {
+            times[i] = System.nanoTime() - start;
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.block = i;
+                event.from = from;
+                event.to = to;
+                event.commit();
             }
+        }
+    }
 
-            joinThreads(t);
+    private void record(long[] times) {
+        if (times.length == 0) {
+            return;
         }
 
-        return ans.stream().reduce(Stream.of(), Stream::concat);
+        long total = 0;
+        long max = 0;
+        for (long time : times) {
+            blockTime.record(time);
+            total += time;
+            max = Math.max(max, time);
+        }
+
+        evaluations.increment();
+        lastSkew = total == 0 ? 1 : (double) max * times.length / total;
+    }
+
+    /**
+     * Returns runtime metrics of block computations.
+     * <p>
+     * Every block is also reported as a {@code info.kgeorgiy.ja.ulin.iterative.Block} JFR event.
+     * </p>
+     *
+     * @return snapshot of metrics.
+     */
+    public ParallelismMetrics metrics() {
+        return new ParallelismMetrics(blockTime.snapshot(), evaluations.sum(), lastSkew);
+    }
+
+    private static int from(int block, int blocks, int size) {
+        return (int) ((long) size * block / blocks);
     }
 
     private static void joinThreads(Thread[] t) throws InterruptedException {
@@ -95,7 +182,7 @@ public class IterativeParallelism implements AdvancedIP {
                         error.addSuppressed(e);
                     } else {
                         for (int j = i; j < threads; ++j) {
-                            t[i].interrupt();
+                            t[j].interrupt();
                         }
                         error = e;
                     }
@@ -108,40 +195,25 @@ public class IterativeParallelism implements AdvancedIP {
         }
     }
 
-    private <U> Stream<U> eval(
-            int threads,
-            int size,
-            Function<Integer, Optional<U>> func,
-            Function<Stream<U>, Stream<U>> postEval
-    ) throws InterruptedException {
-        if (size < threads) {
-            threads = size;
-        }
-        final int threadsFinal = threads;
-
-        return postEval.apply(evaluate(threadsFinal,
-                i -> {
-                    if (i == -1) {
-                        return new Pair<>(0, size);
-                    }
-
-                    int blockSize = (size + threadsFinal - 1) / threadsFinal;
-                    return new Pair<>(blockSize * i, min(blockSize * (i + 1), size));
-                },
-                func, postEval)
-        );
-    }
-
-    private record Pair<T, U>(T first, U second) {
-    }
-
     @Override
     public <T> int argMax(int threads, List<T> list, Comparator<? super T> comparator) throws InterruptedException {
-        Comparator<Pair<T, Integer>> cmp = Comparator
-                .comparing((Pair<T, Integer> p) -> p.first(), comparator)
-                .thenComparing(Pair::second, Comparator.reverseOrder());
+        int ans = -1;
+        List<T> values = Lists.randomAccess(list);
+        for (int i : evaluate(threads, values.size(), (from, to) -> {
+            int best = from;
+            for (int j = from + 1; j < to; ++j) {
+                if (comparator.compare(values.get(j), values.get(best)) > 0) {
+                    best = j;
+                }
+            }
+            return best;
+        })) {
+            if (ans == -1 || comparator.compare(values.get(i), values.get(ans)) > 0) {
+                ans = i;
+            }
+        }
 
-        return eval(threads, list.size(), (i) -> Optional.of(new Pair<>(list.get(i), i)), stream -> stream.max(cmp).stream()).findFirst().orElse(new Pair<>(null, -1)).second();
+        return ans;
     }
 
     @Override
@@ -151,32 +223,152 @@ public class IterativeParallelism implements AdvancedIP {
 
     @Override
     public <T> int indexOf(int threads, List<T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return eval(threads, list.size(), (i) -> predicate.test(list.get(i)) ? Optional.of(i) : Optional.empty(), a -> a.findFirst().stream()).findFirst().orElse(-1);
+        int ans = search(threads, list, predicate, true);
+        return ans == NOT_FOUND ? -1 : ans;
     }
 
     @Override
     public <T> int lastIndexOf(int threads, List<T> list, Predicate<? super T> predicate) throws InterruptedException {
-        int ans = indexOf(threads, list.reversed(), predicate);
-        if (ans == -1) {
-            return ans;
-        } else {
-            return list.size() - ans - 1;
-        }
+        AtomicInteger best = new AtomicInteger(-1);
+
+        List<T> values = Lists.randomAccess(list);
+        evaluate(threads, values.size(), (from, to) -> {
+            for (int j = to - 1; j >= from && j > best.get(); --j) {
+                if (predicate.test(values.get(j))) {
+                    best.accumulateAndGet(j, Math::max);
+                    break;
+                }
+            }
+            return null;
+        });
+
+        return best.get();
+    }
+
+    /**
+     * Returns whether any element of the list matches the predicate.
+     * <p>
+     * All blocks stop as soon as a match is found in any of them.
+     * </p>
+     *
+     * @param threads number of concurrent threads.
+     * @param list list to check.
+     * @param predicate predicate to test.
+     * @param <T> type of elements.
+     * @return {@code true} if any element matches the predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public <T> boolean anyMatch(int threads, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
+        return search(threads, list, predicate, false) != NOT_FOUND;
+    }
+
+    /**
+     * Returns whether all elements of the list match the predicate.
+     * <p>
+     * All blocks stop as soon as a mismatch is found in any of them.
+     * </p>
+     *
+     * @param threads number of concurrent threads.
+     * @param list list to check.
+     * @param predicate predicate to test.
+     * @param <T> type of elements.
+     * @return {@code true} if all elements match the predicate.
+     * @throws InterruptedException if executing thread was interrupted.
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public <T> boolean allMatch(int threads, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
+        return !anyMatch(threads, list, predicate.negate());
+    }
+
+    /**
+     * Searches a matching element, sharing the best index found so far between blocks.
+     * A block stops when it can't improve the answer: when a smaller index is already found,
+     * or when any index is found if {@code first} is {@code false}.
+     *
+     * @return index of a match, the first one if {@code first} is set, or {@code NOT_FOUND}.
+     */
+    private <T> int search(int threads, List<? extends T> list, Predicate<? super T> predicate, boolean first) throws InterruptedException {
+        AtomicInteger best = new AtomicInteger(NOT_FOUND);
+
+        List<? extends T> values = Lists.randomAccess(list);
+        evaluate(threads, values.size(), (from, to) -> {
+            for (int j = from; j < to; ++j) {
+                int found = best.get();
+                if (first ? found < j : found != NOT_FOUND) {
+                    break;
+                }
+
+                if (predicate.test(values.get(j))) {
+                    best.accumulateAndGet(j, Math::min);
+                    break;
+                }
+            }
+            return null;
+        });
+
+        return best.get();
     }
 
     @Override
     public <T> long sumIndices(int threads, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return eval(threads, list.size(), (i) -> predicate.test(list.get(i)) ? Optional.of((long) i) : Optional.empty(), a -> Stream.of(a.reduce(0L, Long::sum))).findFirst().orElse(0L);
+        long ans = 0;
+        List<? extends T> values = Lists.randomAccess(list);
+        for (long sum : evaluate(threads, values.size(), (from, to) -> {
+            long blockSum = 0;
+            for (int j = from; j < to; ++j) {
+                if (predicate.test(values.get(j))) {
+                    blockSum += j;
+                }
+            }
+            return blockSum;
+        })) {
+            ans += sum;
+        }
+
+        return ans;
     }
 
     @Override
     public <T> int[] indices(int threads, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return eval(threads, list.size(), (i) -> predicate.test(list.get(i)) ? Optional.of(i) : Optional.empty(), a -> a).mapToInt(Integer::intValue).toArray();
+        List<? extends T> values = Lists.randomAccess(list);
+        List<int[]> blocks = evaluate(threads, values.size(), (from, to) -> {
+            int[] found = new int[8];
+            int count = 0;
+            for (int j = from; j < to; ++j) {
+                if (predicate.test(values.get(j))) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, min(2 * count, to - from));
+                    }
+                    found[count++] = j;
+                }
+            }
+            return Arrays.copyOf(found, count);
+        });
+
+        int[] ans = new int[blocks.stream().mapToInt(block -> block.length).sum()];
+        int pos = 0;
+        for (int[] block : blocks) {
+            System.arraycopy(block, 0, ans, pos, block.length);
+            pos += block.length;
+        }
+
+        return ans;
     }
 
     @Override
     public <T> List<T> filter(int threads, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return eval(threads, list.size(), (i) -> predicate.test(list.get(i)) ? Optional.of(list.get(i)) : Optional.empty(), a -> a).collect(Collectors.toList());
+        List<? extends T> values = Lists.randomAccess(list);
+        return concat(evaluate(threads, values.size(), (from, to) -> {
+            List<T> found = new ArrayList<>();
+            for (int j = from; j < to; ++j) {
+                T value = values.get(j);
+                if (predicate.test(value)) {
+                    found.add(value);
+                }
+            }
+            return found;
+        }));
     }
 
     @Override
@@ -185,16 +377,207 @@ public class IterativeParallelism implements AdvancedIP {
             throw new NullPointerException("Function is null");
         }
 
-        return eval(threads, list.size(), (i) -> Optional.of(function.apply(list.get(i))), a -> a).collect(Collectors.toList());
+        List<? extends T> values = Lists.randomAccess(list);
+        return concat(evaluate(threads, values.size(), (from, to) -> {
+            List<U> mapped = new ArrayList<>(to - from);
+            for (int j = from; j < to; ++j) {
+                mapped.add(function.apply(values.get(j)));
+            }
+            return mapped;
+        }));
+    }
+
+    private static <T> List<T> concat(List<List<T>> blocks) {
+        List<T> ans = new ArrayList<>(blocks.stream().mapToInt(List::size).sum());
+        for (List<T> block : blocks) {
+            ans.addAll(block);
+        }
+
+        return ans;
     }
 
     @Override
     public <T> T reduce(int threads, List<T> list, T neutral, BinaryOperator<T> binaryOperator) throws InterruptedException {
-        return eval(threads, list.size(), (i) -> Optional.of(list.get(i)), a -> a).reduce(neutral, binaryOperator);
+        return mapReduce(threads, list, Function.identity(), neutral, binaryOperator);
     }
 
     @Override
     public <T, R> R mapReduce(int threads, List<T> list, Function<T, R> function, R neutral, BinaryOperator<R> binaryOperator) throws InterruptedException {
-        return reduce(threads, map(threads, list, function), neutral, binaryOperator);
+        R ans = neutral;
+        List<T> values = Lists.randomAccess(list);
+        for (R value : evaluate(threads, values.size(), (from, to) -> {
+            R blockValue = neutral;
+            for (int j = from; j < to; ++j) {
+                blockValue = binaryOperator.apply(blockValue, function.apply(values.get(j)));
+            }
+            return blockValue;
+        })) {
+            ans = binaryOperator.apply(ans, value);
+        }
+
+        return ans;
+    }
+
+    /**
+     * Sorts the list with parallel merge sort.
+     * <p>
+     * Every block is sorted independently, then sorted runs are merged pairwise in parallel.
+     * The sort is stable.
+     * </p>
+     *
+     * @param threads number of concurrent threads.
+     * @param list list to sort.
+     * @param comparator order of elements.
+     * @param <T> type of elements.
+     * @return new sorted list.
+     * @throws InterruptedException if executing thread was interrupted.
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public <T> List<T> sort(int threads, List<? extends T> list, Comparator<? super T> comparator) throws InterruptedException {
+        @SuppressWarnings("unchecked")
+        T[] src = (T[]) list.toArray();
+        int size = src.length;
+        if (size == 0) {
+            return new ArrayList<>();
+        }
+
+        evaluate(threads, size, (from, to) -> {
+            Arrays.sort(src, from, to, comparator);
+            return null;
+        });
+
+        int blocks = min(threads, size);
+        int[] bounds = new int[blocks + 1];
+        for (int i = 0; i <= blocks; ++i) {
+            bounds[i] = from(i, blocks, size);
+        }
+
+        T[] from = src;
+        T[] to = Arrays.copyOf(src, size);
+        while (bounds.length > 2) {
+            final int[] runs = bounds;
+            final T[] source = from;
+            final T[] target = to;
+            int pairs = (runs.length - 1) / 2;
+
+            evaluate(pairs, pairs, (first, last) -> {
+                for (int k = first; k < last; ++k) {
+                    merge(source, target, runs[2 * k], runs[2 * k + 1], runs[2 * k + 2], comparator);
+                }
+                return null;
+            });
+            if ((runs.length - 1) % 2 == 1) {
+                int start = runs[runs.length - 2];
+                System.arraycopy(source, start, target, start, size - start);
+            }
+
+            bounds = IntStream.range(0, runs.length).filter(i -> i % 2 == 0 || i == runs.length - 1).map(i -> runs[i]).toArray();
+            from = target;
+            to = source;
+        }
+
+        return new ArrayList<>(Arrays.asList(from));
+    }
+
+    private static <T> void merge(T[] from, T[] to, int left, int middle, int right, Comparator<? super T> comparator) {
+        int i = left;
+        int j = middle;
+        for (int k = left; k < right; ++k) {
+            if (j >= right || (i < middle && comparator.compare(from[i], from[j]) <= 0)) {
+                to[k] = from[i++];
+            } else {
+                to[k] = from[j++];
+            }
+        }
+    }
+
+    /**
+     * Computes inclusive prefix scan of the list.
+     * <p>
+     * Every block computes its total, totals are scanned sequentially,
+     * and then every block computes its prefixes, starting from the total of previous blocks.
+     * </p>
+     *
+     * @param threads number of concurrent threads.
+     * @param list list to scan.
+     * @param neutral neutral element of the operator.
+     * @param binaryOperator associative operator.
+     * @param <T> type of elements.
+     * @return list, where i-th element is the result of operator over the first i + 1 elements.
+     * @throws InterruptedException if executing thread was interrupted.
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public <T> List<T> prefixScan(int threads, List<T> list, T neutral, BinaryOperator<T> binaryOperator) throws InterruptedException {
+        List<T> values = Lists.randomAccess(list);
+        int size = values.size();
+
+        List<T> totals = evaluate(threads, size, (from, to) -> {
+            T total = neutral;
+            for (int j = from; j < to; ++j) {
+                total = binaryOperator.apply(total, values.get(j));
+            }
+            return total;
+        });
+
+        int blocks = totals.size();
+        int[] starts = new int[blocks];
+        List<T> offsets = new ArrayList<>(blocks);
+        T offset = neutral;
+        for (int i = 0; i < blocks; ++i) {
+            starts[i] = from(i, blocks, size);
+            offsets.add(offset);
+            offset = binaryOperator.apply(offset, totals.get(i));
+        }
+
+        Object[] ans = new Object[size];
+        evaluate(threads, size, (from, to) -> {
+            // Blocks are the same as in the first pass, so the block is found by its start.
+            T prefix = offsets.get(Arrays.binarySearch(starts, from));
+            for (int j = from; j < to; ++j) {
+                prefix = binaryOperator.apply(prefix, values.get(j));
+                ans[j] = prefix;
+            }
+            return null;
+        });
+
+        @SuppressWarnings("unchecked")
+        List<T> result = (List<T>) new ArrayList<>(Arrays.asList(ans));
+        return result;
+    }
+
+    /**
+     * Groups elements of the list by key.
+     * <p>
+     * Every block groups its elements, then groups of blocks are concatenated in order.
+     * </p>
+     *
+     * @param threads number of concurrent threads.
+     * @param list list to group.
+     * @param classifier function that returns key of an element.
+     * @param <T> type of elements.
+     * @param <K> type of keys.
+     * @return map from keys to elements with that key, in order of the list.
+     * @throws InterruptedException if executing thread was interrupted.
+     * @throws IllegalArgumentException if {@code threads} is not positive.
+     */
+    public <T, K> Map<K, List<T>> groupingBy(int threads, List<? extends T> list, Function<? super T, ? extends K> classifier) throws InterruptedException {
+        List<? extends T> values = Lists.randomAccess(list);
+
+        Map<K, List<T>> ans = new HashMap<>();
+        for (Map<K, List<T>> groups : evaluate(threads, values.size(), (from, to) -> {
+            Map<K, List<T>> blockGroups = new HashMap<>();
+            for (int j = from; j < to; ++j) {
+                T value = values.get(j);
+                blockGroups.computeIfAbsent(classifier.apply(value), _ -> new ArrayList<>()).add(value);
+            }
+            return blockGroups;
+        })) {
+            groups.forEach((key, group) -> ans.merge(key, group, (a, b) -> {
+                a.addAll(b);
+                return a;
+            }));
+        }
+
+        return ans;
     }
 }
@@ -0,0 +1,29 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Helpers for input lists of parallel computations.
+ */
+final class Lists {
+    private Lists() {
+    }
+
+    /**
+     * Returns a list with fast indexed access.
+     * <p>
+     * Blocks are addressed by indices, so for a sequential list like {@code LinkedList}
+     * every {@code get} would be linear. Such lists are copied in one pass of their iterator,
+     * after which every block is an independent range of the copy.
+     * </p>
+     *
+     * @param list input list.
+     * @param <T> type of elements.
+     * @return the list itself if it is {@link RandomAccess}, or its copy otherwise.
+     */
+    static <T> List<T> randomAccess(List<T> list) {
+        return list instanceof RandomAccess ? list : new ArrayList<>(list);
+    }
+}
@@ -0,0 +1,29 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
+
+/**
+ * Snapshot of runtime metrics of {@link ParallelMapperImpl}.
+ * <p>
+ * A task is one range of elements run by a worker at once.
+ * Times are in nanoseconds and counted from the creation of the mapper.
+ * </p>
+ *
+ * @param queueDepth number of elements submitted and not yet claimed by a task.
+ * @param waitTime time a task waited in a queue of workers before it started.
+ * @param runTime time of running a task.
+ * @param busyRatio part of the time every worker spent running tasks.
+ * @param completedTasks number of completed tasks.
+ * @param tasksPerSecond average number of tasks completed per second.
+ * @param errors number of exceptions thrown by mapped functions.
+ */
+public record MapperMetrics(
+        long queueDepth,
+        Histogram.Snapshot waitTime,
+        Histogram.Snapshot runTime,
+        double[] busyRatio,
+        long completedTasks,
+        double tasksPerSecond,
+        long errors
+) {
+}
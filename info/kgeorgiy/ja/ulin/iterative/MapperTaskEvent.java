@@ -0,0 +1,26 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for a task run by {@link ParallelMapperImpl}.
+ */
+@Name("info.kgeorgiy.ja.ulin.iterative.MapperTask")
+@Label("Mapper Task")
+@Category({"Parallel Mapper"})
+@Description("Range of elements mapped by a worker")
+class MapperTaskEvent extends Event {
+    @Label("Worker")
+    int worker;
+
+    @Label("First Element")
+    int from;
+
+    @Label("Elements")
+    int elements;
+
+    @Label("Wait Time")
+    @Description("Time since the job was put to the deque the task is taken from")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitTime;
+}
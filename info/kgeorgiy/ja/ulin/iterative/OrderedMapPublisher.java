@@ -0,0 +1,213 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Publisher of results of {@link ParallelMapperImpl#mapAsync}.
+ * <p>
+ * Every subscription keeps a ring of {@code window} slots. Element with index {@code i} is mapped
+ * on the mapper and its result is put into slot {@code i % window}. Results are delivered
+ * strictly in order, and a new element is taken from the input only when the oldest result
+ * is delivered, so at most {@code window} elements are outstanding.
+ * </p>
+ *
+ * @param <T> type of elements.
+ * @param <R> type of results.
+ */
+class OrderedMapPublisher<T, R> implements Flow.Publisher<R> {
+    private final ParallelMapperImpl mapper;
+    private final Function<? super T, ? extends R> function;
+    private final Iterable<? extends T> input;
+    private final int window;
+
+    OrderedMapPublisher(ParallelMapperImpl mapper, Function<? super T, ? extends R> function, Iterable<? extends T> input, int window) {
+        this.mapper = mapper;
+        this.function = function;
+        this.input = input;
+        this.window = window;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        Objects.requireNonNull(subscriber);
+
+        OrderedSubscription subscription = new OrderedSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private record Done<R>(R value, Throwable error) {
+    }
+
+    private class OrderedSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super R> subscriber;
+        private final AtomicReferenceArray<Done<R>> slots = new AtomicReferenceArray<>(window);
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Runnable onClose = () -> fail(new IllegalStateException("Mapper is closed"));
+        private volatile RuntimeException failure = null;
+        private volatile boolean cancelled = false;
+
+        // Accessed only in drain, which is never run concurrently.
+        private Iterator<? extends T> iterator = null;
+        private long submitted = 0;
+        private long emitted = 0;
+        private boolean finished = false;
+
+        OrderedSubscription(Flow.Subscriber<? super R> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Request must be positive, got " + n));
+                return;
+            }
+
+            requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void fail(RuntimeException e) {
+            failure = e;
+            drain();
+        }
+
+        private void submit(T element, long index) {
+            mapper.execute(() -> {
+                Done<R> done;
+                try {
+                    done = new Done<>(cancelled ? null : function.apply(element), null);
+                } catch (Throwable e) {
+                    done = new Done<>(null, e);
+                }
+
+                slots.set((int) (index % window), done);
+                drain();
+            });
+        }
+
+        /**
+         * Delivers ready results and takes new elements from the input.
+         * Concurrent calls are merged into the one that is already running.
+         */
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                if (!finished) {
+                    step();
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Failures of the input and of the function, including errors, are passed to {@code onError}.
+         * Exceptions of the subscriber itself cancel the subscription (Reactive Streams rule 2.13).
+         */
+        private void step() {
+            if (Objects.isNull(iterator)) {
+                mapper.addOnClose(onClose);
+                try {
+                    iterator = input.iterator();
+                } catch (Throwable e) {
+                    terminate(e);
+                    return;
+                }
+            }
+
+            if (cancelled) {
+                finish();
+                return;
+            }
+
+            if (Objects.nonNull(failure)) {
+                terminate(failure);
+                return;
+            }
+
+            while (emitted < submitted && requested.get() > 0) {
+                int slot = (int) (emitted % window);
+                Done<R> done = slots.get(slot);
+                if (Objects.isNull(done)) {
+                    break;
+                }
+
+                slots.set(slot, null);
+                ++emitted;
+
+                if (Objects.nonNull(done.error())) {
+                    terminate(done.error());
+                    return;
+                }
+
+                requested.decrementAndGet();
+                try {
+                    subscriber.onNext(done.value());
+                } catch (Throwable e) {
+                    finish();
+                    return;
+                }
+
+                if (cancelled) {
+                    finish();
+                    return;
+                }
+            }
+
+            boolean exhausted;
+            try {
+                while (submitted - emitted < window && iterator.hasNext()) {
+                    submit(iterator.next(), submitted++);
+                }
+                exhausted = !iterator.hasNext();
+            } catch (Throwable e) {
+                terminate(e);
+                return;
+            }
+
+            if (emitted == submitted && exhausted) {
+                finish();
+                try {
+                    subscriber.onComplete();
+                } catch (Throwable ignore) {
+                }
+            }
+        }
+
+        /**
+         * Signals an error to the subscriber, that is not signalled again even if it throws.
+         */
+        private void terminate(Throwable e) {
+            finish();
+            try {
+                subscriber.onError(e);
+            } catch (Throwable ignore) {
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            cancelled = true;
+            mapper.removeOnClose(onClose);
+        }
+    }
+}
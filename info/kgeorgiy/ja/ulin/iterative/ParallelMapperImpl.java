@@ -1,17 +1,42 @@
 package info.kgeorgiy.ja.ulin.iterative;
 
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
 
 public class ParallelMapperImpl implements ParallelMapper {
-    private final Queue<Runnable> q = new ArrayDeque<>();
-    private final Thread[] t;
-    private boolean isClosed = false;
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final Set<Runnable> onClose = ConcurrentHashMap.newKeySet();
+    private volatile boolean isClosed = false;
+
+    private final long startTime = System.nanoTime();
+    private final Histogram waitTime = new Histogram();
+    private final Histogram runTime = new Histogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private final static int CHUNKS_PER_WORKER = 4;
+    private final static long TARGET_TASK_NANOS = 50_000;
 
     /**
      * Create an instance of {@code ParallelMapperImpl} to map in parallels.
+     * <p>
+     * Every thread owns a deque of jobs. Jobs are submitted to the deques without locks,
+     * and a thread with an empty deque steals jobs from the others.
+     * A thread runs one range of a job and puts the job back to the tail of its deque,
+     * so concurrent {@code map} calls share the threads in round-robin order.
+     * As ranges are bounded in time, a small call waits for at most one range of every other call.
+     * </p>
      *
      * @param threads number of threads to run map tasks.
      */
@@ -20,77 +45,220 @@ public class ParallelMapperImpl implements ParallelMapper {
             throw new IllegalArgumentException("Number of threads must be more than 0");
         }
 
-        t = new Thread[threads];
+        workers = new Worker[threads];
         for (int i = 0; i < threads; ++i) {
-            Thread thread = new Thread(() -> {
-                try {
-                    eval();
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-
-            t[i] = thread;
+            workers[i] = new Worker(i);
+        }
 
-            t[i].start();
+        for (Worker worker : workers) {
+            worker.thread.start();
         }
     }
 
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list) throws InterruptedException {
+        return map(function, list, 1);
+    }
+
+    /**
+     * Maps function over specified list with the specified weight.
+     * <p>
+     * A call with weight {@code w} runs {@code w} ranges per turn, so it gets {@code w} times
+     * more throughput than a call with weight {@code 1} running at the same time.
+     * </p>
+     *
+     * @param function function to apply.
+     * @param list elements to map.
+     * @param weight weight of this call, at least {@code 1}.
+     * @param <T> type of elements.
+     * @param <R> type of results.
+     * @return list of results.
+     * @throws InterruptedException if calling thread was interrupted.
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list, int weight) throws InterruptedException {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be more than 0");
+        }
         if (!Objects.nonNull(function)) {
             throw new IllegalStateException("Function must be not null");
         }
         if (isClosed) throw new IllegalStateException("Mapper is closed");
-        List<R> ans = new ArrayList<>(Collections.nCopies(list.size(), null));
+        List<? extends T> values = Lists.randomAccess(list);
+        int size = values.size();
+        Object[] ans = new Object[size];
+        if (size == 0) {
+            return toList(ans);
+        }
 
-        Counter counter = new Counter(list.size());
         ErrorHandling error = new ErrorHandling();
-
-        for (int i = 0; i < list.size(); ++i) {
-            final int finI = i;
-            synchronized (q) {
-                q.add(() -> {
-                    try {
-                        ans.set(finI, function.apply(list.get(finI)));
-                    } catch (RuntimeException e) {
-                        error.addSuppressed(e);
+        Counter counter = new Counter(size);
+        Runnable cancel = counter::cancel;
+        addOnClose(cancel);
+        try {
+            submit(new Job(size, weight, maxRange(size), counter, (from, to) -> {
+                try {
+                    for (int j = from; j < to && !counter.isCancelled(); ++j) {
+                        ans[j] = function.apply(values.get(j));
                     }
+                } catch (Throwable e) {
+                    errors.increment();
+                    error.addSuppressed(e);
+                } finally {
+                    counter.decrement(to - from);
+                }
+            }));
 
-                    counter.decrement();
-                });
-                q.notify();
-            }
+            counter.waitEnd(this);
+        } finally {
+            removeOnClose(cancel);
         }
 
-        counter.waitEnd();
         if (isClosed) throw new IllegalStateException("Mapper is closed");
         error.checkErrors();
 
-        return ans;
+        return toList(ans);
     }
 
-    private void eval() throws InterruptedException {
-        try {
-            while (true) {
-                Runnable task;
-                synchronized (q) {
-                    while (q.isEmpty()) {
-                        q.wait();
-                    }
+    /**
+     * Upper bound of a range processed by one task.
+     * <p>
+     * Every worker gets at least {@code CHUNKS_PER_WORKER} ranges, so a worker that finishes early steals from slower ones.
+     * Ranges are usually shorter, see {@link Job#rangeLength()}.
+     * </p>
+     */
+    private int maxRange(int size) {
+        long chunks = Math.min(size, (long) workers.length * CHUNKS_PER_WORKER);
+        return (int) ((size + chunks - 1) / chunks);
+    }
 
-                    task = q.poll();
-                }
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> toList(Object[] values) {
+        return (List<R>) Arrays.asList(values);
+    }
 
-                if (isClosed) {
-                    break;
-                }
+    /**
+     * Returns runtime metrics of the mapper.
+     * <p>
+     * Metrics are collected all the time, and can be polled from any thread.
+     * Every task is also reported as a {@code info.kgeorgiy.ja.ulin.iterative.MapperTask} JFR event.
+     * </p>
+     *
+     * @return snapshot of metrics.
+     */
+    public MapperMetrics metrics() {
+        long elapsed = Math.max(System.nanoTime() - startTime, 1);
+
+        Set<Job> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+        double[] busyRatio = new double[workers.length];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i].tasks.forEach(entry -> queued.add(entry.job()));
+            busyRatio[i] = (double) workers[i].busyNanos / elapsed;
+        }
 
-                task.run();
+        long completedTasks = completed.sum();
+        return new MapperMetrics(
+                queued.stream().mapToLong(Job::remaining).sum(),
+                waitTime.snapshot(),
+                runTime.snapshot(),
+                busyRatio,
+                completedTasks,
+                completedTasks * 1e9 / elapsed,
+                errors.sum()
+        );
+    }
+
+    /**
+     * Maps elements of {@code input} asynchronously.
+     * <p>
+     * Results are published in the order of the input as soon as they and all previous results are ready.
+     * At most {@code window} elements are taken from the input and not yet delivered to the subscriber,
+     * so memory stays bounded even for unbounded inputs.
+     * Every subscription iterates the input anew.
+     * </p>
+     *
+     * @param function function to apply.
+     * @param input elements to map.
+     * @param window maximal number of outstanding elements.
+     * @param <T> type of elements.
+     * @param <R> type of results.
+     * @return publisher of results.
+     */
+    public <T, R> Flow.Publisher<R> mapAsync(Function<? super T, ? extends R> function, Iterable<? extends T> input, int window) {
+        if (!Objects.nonNull(function)) {
+            throw new IllegalStateException("Function must be not null");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be more than 0");
+        }
+
+        return new OrderedMapPublisher<>(this, function, input, window);
+    }
+
+    /**
+     * Runs a single task on one of the workers. The task should handle its own failures,
+     * the ones it throws go to the uncaught exception handler of the worker.
+     *
+     * @throws IllegalStateException if the mapper is closed.
+     */
+    void execute(Runnable task) {
+        if (isClosed) throw new IllegalStateException("Mapper is closed");
+        submit(new Job(1, 1, 1, null, (from, to) -> task.run()));
+    }
+
+    /**
+     * Registers an action to run when the mapper is closed. Runs it immediately, if it is already closed.
+     */
+    void addOnClose(Runnable action) {
+        onClose.add(action);
+        if (isClosed) {
+            action.run();
+        }
+    }
+
+    void removeOnClose(Runnable action) {
+        onClose.remove(action);
+    }
+
+    /**
+     * Puts the job to the deques of as many workers, as it has ranges to run in parallel.
+     * <p>
+     * Busy workers may hold the job for long, so for every one of them another parked worker is woken up
+     * to steal the job. Otherwise a small job could wait for a busy worker while the others sleep.
+     * </p>
+     */
+    private void submit(Job job) {
+        int start = nextWorker.getAndIncrement();
+        int copies = Math.min(job.size, workers.length);
+        int busy = 0;
+        for (int i = 0; i < copies; ++i) {
+            Worker worker = workers[Math.floorMod(start + i, workers.length)];
+            worker.tasks.offerLast(new Queued(job, System.nanoTime()));
+            if (!worker.signal()) {
+                ++busy;
             }
-        } catch (InterruptedException _) {
+        }
+
+        for (int i = copies; i < workers.length && busy > 0; ++i) {
+            if (workers[Math.floorMod(start + i, workers.length)].signal()) {
+                --busy;
+            }
+        }
+    }
 
+    private Queued steal(Worker thief) {
+        int n = workers.length;
+        int start = n == 1 ? 0 : ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; ++i) {
+            Worker victim = workers[(start + i) % n];
+            if (victim != thief) {
+                Queued entry = victim.tasks.pollLast();
+                if (Objects.nonNull(entry)) {
+                    return entry;
+                }
+            }
         }
+
+        return null;
     }
 
     @Override
@@ -99,52 +267,237 @@ public class ParallelMapperImpl implements ParallelMapper {
             return;
         }
         isClosed = true;
-        interruptThreads(t);
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        for (Runnable action : onClose) {
+            action.run();
+        }
     }
 
-    private static void interruptThreads(Thread[] t) {
-        for (Thread thread : t) {
-            thread.interrupt();
+    /**
+     * Elements {@code [0, size)} of a single {@code map} call, that are claimed by workers range by range.
+     * <p>
+     * Length of a range is chosen when it is claimed, from the running estimate of the cost of one element,
+     * so that a task runs about {@code TARGET_TASK_NANOS}, but never longer than {@code maxRange} elements.
+     * </p>
+     */
+    private static class Job {
+        private final static double COST_WEIGHT = 0.25;
+
+        private final int size;
+        private final int weight;
+        private final int maxRange;
+        private final Counter counter;
+        private final RangeTask task;
+        private final AtomicInteger next = new AtomicInteger();
+        // Nanoseconds per element, 0 until the first range is run. Concurrent updates may lose a sample.
+        private volatile double elementNanos = 0;
+
+        Job(int size, int weight, int maxRange, Counter counter, RangeTask task) {
+            this.size = size;
+            this.weight = weight;
+            this.maxRange = maxRange;
+            this.counter = counter;
+            this.task = task;
+        }
+
+        Range claim() {
+            if (Objects.nonNull(counter) && counter.isCancelled() || !hasMore()) {
+                return null;
+            }
+
+            int length = rangeLength();
+            int from = next.getAndAccumulate(length, (n, l) -> (int) Math.min((long) n + l, size));
+            return from < size ? new Range(from, Math.min(from + length, size)) : null;
+        }
+
+        /**
+         * Ranges start from a single element, until the cost of an element is measured.
+         */
+        int rangeLength() {
+            double cost = elementNanos;
+            long byCost = cost > 0 ? (long) (TARGET_TASK_NANOS / cost) : 1;
+            return (int) Math.max(1, Math.min(byCost, maxRange));
+        }
+
+        void record(int elements, long nanos) {
+            double sample = (double) Math.max(nanos, 1) / elements;
+            double cost = elementNanos;
+            elementNanos = cost > 0 ? cost + COST_WEIGHT * (sample - cost) : sample;
+        }
+
+        boolean hasMore() {
+            return next.get() < size;
+        }
+
+        long remaining() {
+            return Objects.nonNull(counter) && counter.isCancelled() ? 0 : Math.max(size - next.get(), 0);
         }
     }
 
-    private static class Counter {
-        private int count;
+    private record Range(int from, int to) {
+    }
 
-        Counter(int start) {
-            count = start;
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Job in a deque, with the time it was put there.
+     */
+    private record Queued(Job job, long since) {
+    }
+
+    private class Worker {
+        private final ConcurrentLinkedDeque<Queued> tasks = new ConcurrentLinkedDeque<>();
+        private final Thread thread;
+        private final int index;
+        private volatile boolean parked = false;
+        // Written only by the worker itself.
+        private volatile long busyNanos = 0;
+
+        Worker(int index) {
+            this.index = index;
+            thread = new Thread(this::eval, "ParallelMapper-" + index);
         }
 
-        public synchronized void decrement() {
-            --count;
+        /**
+         * Wakes the worker up, if it is parked.
+         *
+         * @return {@code true} if the worker was parked.
+         */
+        boolean signal() {
+            if (parked) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        private Queued next() {
+            Queued entry = tasks.pollFirst();
+            return Objects.nonNull(entry) ? entry : steal(this);
+        }
+
+        /**
+         * Runs up to {@code weight} ranges of the job. If the job has more ranges,
+         * it is put back to the tail of the deque, behind the other jobs,
+         * including the ones submitted while the ranges were running.
+         * <p>
+         * Wait time of a range is counted from the moment the job was put to the deque it is taken from,
+         * not from the start of the {@code map} call, as the job is put back after every turn.
+         * </p>
+         */
+        private void run(Queued entry) {
+            Job job = entry.job();
+            for (int i = 0; i < job.weight; ++i) {
+                Range range = job.claim();
+                if (Objects.isNull(range)) {
+                    return;
+                }
+
+                runChunk(job, range, entry.since());
+            }
 
-            if (count == 0) {
-                notify();
+            if (job.hasMore()) {
+                tasks.offerLast(new Queued(job, System.nanoTime()));
             }
         }
 
-        public synchronized void waitEnd() throws InterruptedException {
-            while (count > 0) {
-                wait();
+        private void runChunk(Job job, Range range, long queued) {
+            MapperTaskEvent event = new MapperTaskEvent();
+            event.begin();
+            long start = System.nanoTime();
+
+            try {
+                job.task.run(range.from(), range.to());
+            } finally {
+                long time = System.nanoTime() - start;
+                job.record(range.to() - range.from(), time);
+                waitTime.record(start - queued);
+                runTime.record(time);
+                busyNanos += time;
+                completed.increment();
+
+                event.end();
+                if (event.shouldCommit()) {
+                    event.worker = index;
+                    event.from = range.from();
+                    event.elements = range.to() - range.from();
+                    event.waitTime = start - queued;
+                    event.commit();
+                }
             }
+        }
+
+        private void eval() {
+            while (!isClosed) {
+                Queued entry = next();
+
+                if (Objects.isNull(entry)) {
+                    // Announce parking before the last check, so a concurrent submit either
+                    // sees the flag and unparks us, or we see its job here.
+                    parked = true;
+                    entry = next();
+                    if (Objects.isNull(entry)) {
+                        LockSupport.park(this);
+                        parked = false;
+                        if (!isClosed) {
+                            Thread.interrupted();
+                        }
+                        continue;
+                    }
+                    parked = false;
+                }
+
+                if (isClosed) {
+                    break;
+                }
 
+                try {
+                    run(entry);
+                } catch (Throwable e) {
+                    // Map tasks report their own failures, so this is a failure of a single task, not of the worker.
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
         }
     }
 
-    private static class ErrorHandling {
-        private RuntimeException error = null;
+    private static class Counter {
+        private final AtomicInteger count;
+        private final Thread waiter = Thread.currentThread();
+        private volatile boolean cancelled = false;
+
+        Counter(int start) {
+            count = new AtomicInteger(start);
+        }
 
-        public synchronized void addSuppressed(RuntimeException e) {
-            if (Objects.nonNull(error)) {
-                error.addSuppressed(e);
-            } else {
-                error = e;
+        public void decrement(int delta) {
+            if (count.addAndGet(-delta) == 0) {
+                LockSupport.unpark(waiter);
             }
         }
 
-        public synchronized void checkErrors() {
-            if (Objects.nonNull(error)) {
-                throw error;
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(waiter);
+        }
+
+        public void waitEnd(Object blocker) throws InterruptedException {
+            while (count.get() > 0 && !cancelled) {
+                LockSupport.park(blocker);
+
+                if (Thread.interrupted()) {
+                    cancelled = true;
+                    throw new InterruptedException();
+                }
             }
         }
     }
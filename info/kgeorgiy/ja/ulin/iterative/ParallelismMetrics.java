@@ -0,0 +1,13 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import info.kgeorgiy.ja.ulin.metrics.Histogram;
+
+/**
+ * Snapshot of runtime metrics of {@link IterativeParallelism}.
+ *
+ * @param blockTime time of computing one block, in nanoseconds.
+ * @param evaluations number of parallel computations.
+ * @param lastSkew ratio of the slowest block time to the mean block time in the last computation.
+ */
+public record ParallelismMetrics(Histogram.Snapshot blockTime, long evaluations, double lastSkew) {
+}
@@ -0,0 +1,124 @@
+package info.kgeorgiy.ja.ulin.iterative;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * {@code ParallelMapper} that runs tasks in virtual threads.
+ * <p>
+ * Suitable for functions that block on I/O. The number of elements processed at the same time
+ * is bounded by {@code limit} over all {@code map} calls, not by the number of threads.
+ * </p>
+ */
+public class VirtualThreadMapper implements ParallelMapper {
+    private final int limit;
+    private final Semaphore permits;
+    private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean isClosed = false;
+
+    /**
+     * Create an instance of {@code VirtualThreadMapper}.
+     *
+     * @param limit maximal number of elements that are mapped concurrently.
+     */
+    public VirtualThreadMapper(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be more than 0");
+        }
+
+        this.limit = limit;
+        this.permits = new Semaphore(limit);
+    }
+
+    @Override
+    public <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list) throws InterruptedException {
+        if (!Objects.nonNull(function)) {
+            throw new IllegalStateException("Function must be not null");
+        }
+        if (isClosed) throw new IllegalStateException("Mapper is closed");
+        List<? extends T> values = Lists.randomAccess(list);
+        int size = values.size();
+        Object[] ans = new Object[size];
+
+        AtomicInteger next = new AtomicInteger();
+        ErrorHandling error = new ErrorHandling();
+        Thread[] t = new Thread[Math.min(limit, size)];
+
+        for (int i = 0; i < t.length; ++i) {
+            t[i] = Thread.ofVirtual().unstarted(() -> eval(function, values, ans, next, error));
+            running.add(t[i]);
+            t[i].start();
+        }
+        if (isClosed) {
+            interruptThreads(t);
+        }
+
+        try {
+            for (Thread thread : t) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            interruptThreads(t);
+            throw e;
+        } finally {
+            running.removeAll(Arrays.asList(t));
+        }
+
+        if (isClosed) throw new IllegalStateException("Mapper is closed");
+        error.checkErrors();
+
+        @SuppressWarnings("unchecked")
+        List<R> result = (List<R>) Arrays.asList(ans);
+        return result;
+    }
+
+    private <T, R> void eval(
+            Function<? super T, ? extends R> function,
+            List<? extends T> list,
+            Object[] ans,
+            AtomicInteger next,
+            ErrorHandling error) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                int i = next.getAndIncrement();
+                if (i >= ans.length) {
+                    return;
+                }
+
+                ans[i] = function.apply(list.get(i));
+            } catch (Throwable e) {
+                error.addSuppressed(e);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        for (Thread thread : running) {
+            thread.interrupt();
+        }
+    }
+
+    private static void interruptThreads(Thread[] t) {
+        for (Thread thread : t) {
+            thread.interrupt();
+        }
+    }
+}
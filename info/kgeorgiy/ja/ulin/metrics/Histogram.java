@@ -0,0 +1,102 @@
+package info.kgeorgiy.ja.ulin.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Values are counted in power-of-two buckets, so percentiles are precise up to a factor of two.
+ * </p>
+ */
+public final class Histogram {
+    private final static int BUCKETS = Long.SIZE;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a value to the histogram.
+     *
+     * @param nanos duration in nanoseconds, negative values are counted as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds values recorded by another histogram so far.
+     *
+     * @param other added histogram.
+     */
+    public void add(final Histogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets.addAndGet(i, other.buckets.get(i));
+        }
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Returns statistics of values recorded so far.
+     *
+     * @return snapshot of the histogram.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        return new Snapshot(
+                total,
+                total == 0 ? 0 : sum.sum() / total,
+                percentile(counts, total, 0.5),
+                percentile(counts, total, 0.9),
+                percentile(counts, total, 0.99),
+                max.get(),
+                sum.sum(),
+                counts
+        );
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile.
+     */
+    private static long percentile(long[] counts, long total, double p) {
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return (1L << i) - 1;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Statistics of a histogram, all durations are in nanoseconds.
+     *
+     * @param count number of recorded values.
+     * @param mean mean value.
+     * @param p50 median, precise up to a factor of two.
+     * @param p90 90th percentile, precise up to a factor of two.
+     * @param p99 99th percentile, precise up to a factor of two.
+     * @param max maximal value.
+     * @param sum sum of values.
+     * @param buckets number of values by bucket: bucket {@code 0} holds zeros, and bucket {@code i > 0}
+     *                holds values from {@code 2^(i - 1)} to {@code 2^i - 1}.
+     */
+    public record Snapshot(long count, long mean, long p50, long p90, long p99, long max, long sum, long[] buckets) {
+    }
+}
@@ -10,11 +10,13 @@ module info.kgeorgiy.ja.ulin {
     requires java.desktop;
     requires info.kgeorgiy.java.advanced.hello;
     requires java.rmi;
+    requires jdk.jfr;
     requires jdk.httpserver;
 
     exports info.kgeorgiy.ja.ulin.arrayset;
     exports info.kgeorgiy.ja.ulin.implementor;
     exports info.kgeorgiy.ja.ulin.iterative;
+    exports info.kgeorgiy.ja.ulin.metrics;
     exports info.kgeorgiy.ja.ulin.lambda;
     exports info.kgeorgiy.ja.ulin.student;
     exports info.kgeorgiy.ja.ulin.walk;
@@ -0,0 +1,22 @@
+#!/bin/bash
+# Runs JMH benchmarks from ../benchmarks.
+# Expects jars of the course in ../../java-advanced-2025/artifacts and JMH jars
+# (jmh-core, jmh-generator-annprocess, jopt-simple, commons-math3) in $JMH_LIB.
+# Arguments are passed to JMH, e.g. "IterativeBenchmark -prof gc".
+# Benchmarks with their own main are run with "--main", e.g. "--main ParallelBenchmark scaling".
+
+JMH_LIB=${JMH_LIB:-../../jmh}
+ARTIFACTS=../../java-advanced-2025/artifacts
+CP="$(ls $JMH_LIB/*.jar $ARTIFACTS/*.jar | tr '\n' ':')"
+
+rm -rf benchmarks-out
+javac -d benchmarks-out -cp "$CP" -processorpath "$CP" \
+ $(find ../info/kgeorgiy/ja/ulin/iterative ../info/kgeorgiy/ja/ulin/crawler ../info/kgeorgiy/ja/ulin/metrics ../benchmarks -name '*.java')
+
+if [ "$1" == "--main" ]; then
+  java -cp "benchmarks-out:$CP" "info.kgeorgiy.ja.ulin.benchmark.$2" "${@:3}"
+else
+  java -cp "benchmarks-out:$CP" org.openjdk.jmh.Main "$@"
+fi
+
+rm -rf benchmarks-out